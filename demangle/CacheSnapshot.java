@@ -0,0 +1,163 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * SymbolCache的快照文件, 用于重启后预热.
+ *
+ * 条目按key排序, key和value都做front coding: 只存与上一条共同前缀的长度和剩余部分(UTF-8).
+ * 相邻的mangled符号和打印结果通常有很长的公共前缀(模块名, "type metadata for Swift."等).
+ *
+ * 格式: magic, version, count, 然后每条:
+ *   options(varint) keyShared(varint) keySuffixBytes(varint) keySuffix valueShared(varint) valueSuffixBytes(varint) valueSuffix
+ */
+public final class CacheSnapshot {
+
+    private static final int magic = 0x4D534443; // "MSDC"
+    private static final int version = 1;
+
+    private static final class Entry {
+        final String mangled;
+        final int options;
+        final String value;
+
+        Entry(String mangled, int options, String value) {
+            this.mangled = mangled;
+            this.options = options;
+            this.value = value;
+        }
+    }
+
+    private CacheSnapshot() {
+    }
+
+    /*
+     * 把cache当前的条目写到file. 遍历cache时不加锁, 先写临时文件再替换, 读者不会看到写了一半的文件.
+     * 返回写入的条目数.
+     */
+    public static int write(SymbolCache cache, Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>(cache.size());
+        cache.forEach((mangled, options, value) -> entries.add(new Entry(mangled, options, value)));
+        Collections.sort(entries, Comparator.comparing((Entry e) -> e.mangled).thenComparingInt(e -> e.options));
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(magic);
+                out.writeInt(version);
+                out.writeInt(entries.size());
+                String previousKey = "";
+                String previousValue = "";
+                for (Entry entry : entries) {
+                    writeVarInt(out, entry.options);
+                    writeFrontCoded(out, previousKey, entry.mangled);
+                    writeFrontCoded(out, previousValue, entry.value);
+                    previousKey = entry.mangled;
+                    previousValue = entry.value;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return entries.size();
+    }
+
+    /*
+     * 映射file并把条目放进cache, 返回读到的条目数. 文件不存在时返回0.
+     */
+    public static int read(Path file, SymbolCache cache) throws IOException {
+        if (!Files.exists(file)) return 0;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != magic || buffer.getInt() != version) {
+                throw new IOException("not a demangle cache snapshot: " + file);
+            }
+            int count = buffer.getInt();
+            StringBuilder key = new StringBuilder();
+            StringBuilder value = new StringBuilder();
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int options = readVarInt(buffer);
+                scratch = readFrontCoded(buffer, key, scratch);
+                scratch = readFrontCoded(buffer, value, scratch);
+                cache.put(key.toString(), options, value.toString());
+            }
+            return count;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("truncated demangle cache snapshot: " + file, e);
+        }
+    }
+
+    private static void writeFrontCoded(DataOutputStream out, String previous, String current) throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length(), current.length());
+        while (shared < max && previous.charAt(shared) == current.charAt(shared)) shared++;
+        // 不从代理对中间切开
+        if (shared > 0 && Character.isHighSurrogate(current.charAt(shared - 1))) shared--;
+        byte[] suffix = current.substring(shared).getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, shared);
+        writeVarInt(out, suffix.length);
+        out.write(suffix);
+    }
+
+    private static byte[] readFrontCoded(MappedByteBuffer buffer, StringBuilder text, byte[] scratch) {
+        int shared = readVarInt(buffer);
+        int length = readVarInt(buffer);
+        if (shared < 0 || shared > text.length()) {
+            throw new IllegalArgumentException("shared prefix " + shared + ", previous " + text.length());
+        }
+        /* 先检查长度再分配, 损坏的长度不会分配大数组 */
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("length " + length + ", remaining " + buffer.remaining());
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(scratch, 0, length);
+        text.setLength(shared);
+        text.append(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        return scratch;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(MappedByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+}
@@ -14,6 +14,10 @@ public class Contents {
     public Type type;
     public int index;
     public String name;
+    // span内容: [start, end) of source, 第一次getName()时才生成name.
+    private CharSequence source;
+    private int start;
+    private int end;
 
     public Contents() {
         this.type = Type.NONE;
@@ -24,6 +28,13 @@ public class Contents {
         this.name = name;
     }
 
+    public Contents(CharSequence source, int start, int end) {
+        this.type = Type.STRRING;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
     public Contents(int index) {
         this.type = Type.INT;
         this.index = index;
@@ -38,7 +49,12 @@ public class Contents {
 
     public String getName() {
         if (type == Type.STRRING) {
-            return name;
+            String n = name;
+            if (n == null && source != null) {
+                n = source.subSequence(start, end).toString();
+                name = n;
+            }
+            return n;
         }
         return null;
     }
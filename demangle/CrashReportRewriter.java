@@ -0,0 +1,318 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * 改写整份Apple崩溃报告, 把调用栈里的Swift符号换成demangle结果, 其余内容原样输出.
+ *
+ * 支持两种格式, 按第一个非空白字符区分:
+ *   .crash 文本: 调用栈帧的格式为 "序号 镜像名 0x地址 符号 + 偏移 ...", 只替换地址后的符号token.
+ *   .ips JSON: 一行header对象, 后面是body对象. 替换所有key为"symbol"的字符串值
+ *              (threads[].frames[]和lastExceptionBacktrace[]里的帧), 值里的转义先还原.
+ *
+ * 输入边读边写, 不建立整份文档: 文本按行处理, JSON用只记录嵌套层次和当前key的词法扫描.
+ * 同一份报告里重复出现的符号只demangle一次.
+ */
+public final class CrashReportRewriter {
+
+    private final Input in;
+    private final Writer out;
+    // 本报告内的demangle结果, 失败的记为原符号
+    private final HashMap<String, String> symbols = new HashMap<>();
+    private int replaced;
+
+    private CrashReportRewriter(Reader in, Writer out) {
+        this.in = new Input(in);
+        this.out = out;
+    }
+
+    /*
+     * 改写一份报告, 返回替换的符号个数(按出现次数).
+     */
+    public static int rewrite(Reader in, Writer out) throws IOException {
+        CrashReportRewriter rewriter = new CrashReportRewriter(in, out);
+        if (rewriter.in.firstNonWhitespace() == '{') {
+            rewriter.rewriteJson();
+        } else {
+            rewriter.rewriteText();
+        }
+        out.flush();
+        return rewriter.replaced;
+    }
+
+    public static int rewrite(Path input, Path output) throws IOException {
+        try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            return rewrite(reader, writer);
+        }
+    }
+
+    private String demangle(String mangled) {
+        String known = symbols.get(mangled);
+        if (known == null) {
+            known = MMSwiftDemangle.demangle(mangled, MMSwiftDemangle.rewriteOptions);
+            if (known == null || known.isEmpty()) known = mangled;
+            symbols.put(mangled, known);
+        }
+        if (!known.equals(mangled)) replaced++;
+        return known;
+    }
+
+    private static boolean hasManglingPrefix(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length >= 2 && text.charAt(start) == '$') {
+            char c = text.charAt(start + 1);
+            return c == 's' || c == 'S';
+        }
+        if (length >= 3 && text.charAt(start) == '_') {
+            char c = text.charAt(start + 1);
+            char d = text.charAt(start + 2);
+            return c == '$' && (d == 's' || d == 'S') || c == 'T' && d == '0';
+        }
+        return false;
+    }
+
+    /* ---------- .crash ---------- */
+
+    private void rewriteText() throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        while (in.readLine(line)) {
+            int end = line.length();
+            while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) end--;
+            int symbolStart = frameSymbolStart(line, end);
+            if (symbolStart < 0) {
+                out.append(line);
+                continue;
+            }
+            int symbolEnd = symbolStart;
+            while (symbolEnd < end && line.charAt(symbolEnd) > ' ') symbolEnd++;
+            if (!hasManglingPrefix(line, symbolStart, symbolEnd)) {
+                out.append(line);
+                continue;
+            }
+            out.append(line, 0, symbolStart);
+            out.append(demangle(line.substring(symbolStart, symbolEnd)));
+            out.append(line, symbolEnd, line.length());
+        }
+    }
+
+    /*
+     * "12  MyApp  0x0000000100a0c8f4 $s5MyApp4mainyyF + 40", 返回符号的起始位置, 不是帧时返回-1.
+     * 镜像名可能含空格, 所以找序号之后第一个"0x"开头的token作为地址.
+     */
+    private static int frameSymbolStart(CharSequence line, int end) {
+        int i = 0;
+        while (i < end && line.charAt(i) == ' ') i++;
+        int digits = i;
+        while (i < end && Character.isDigit(line.charAt(i))) i++;
+        if (i == digits || i == end || line.charAt(i) > ' ') return -1;
+        while (i < end) {
+            while (i < end && line.charAt(i) <= ' ') i++;
+            int token = i;
+            while (i < end && line.charAt(i) > ' ') i++;
+            if (i - token > 2 && line.charAt(token) == '0' && line.charAt(token + 1) == 'x') {
+                while (i < end && line.charAt(i) <= ' ') i++;
+                return i < end ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /* ---------- .ips ---------- */
+
+    private void rewriteJson() throws IOException {
+        // 每层是否为对象, 以及对象里下一个字符串是不是key
+        ArrayList<Boolean> objects = new ArrayList<>();
+        boolean expectKey = false;
+        String key = null;
+        StringBuilder raw = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) >= 0) {
+            switch (c) {
+                case '{':
+                    objects.add(Boolean.TRUE);
+                    expectKey = true;
+                    key = null;
+                    out.write(c);
+                    break;
+                case '[':
+                    objects.add(Boolean.FALSE);
+                    expectKey = false;
+                    key = null;
+                    out.write(c);
+                    break;
+                case '}':
+                case ']':
+                    if (!objects.isEmpty()) objects.remove(objects.size() - 1);
+                    expectKey = false;
+                    out.write(c);
+                    break;
+                case ',':
+                    expectKey = !objects.isEmpty() && objects.get(objects.size() - 1);
+                    out.write(c);
+                    break;
+                case ':':
+                    expectKey = false;
+                    out.write(c);
+                    break;
+                case '"':
+                    raw.setLength(0);
+                    readString(raw);
+                    if (expectKey) {
+                        key = unescape(raw);
+                        out.write('"');
+                        out.append(raw);
+                        out.write('"');
+                    } else if ("symbol".equals(key) && (raw.indexOf("\\") >= 0 || hasManglingPrefix(raw, 0, raw.length()))) {
+                        /* 值里有转义时先还原再判断; 没有替换时原样输出, 不改变原来的转义写法 */
+                        String symbol = unescape(raw);
+                        String demangled = hasManglingPrefix(symbol, 0, symbol.length()) ? demangle(symbol) : symbol;
+                        out.write('"');
+                        if (demangled.equals(symbol)) {
+                            out.append(raw);
+                        } else {
+                            escape(demangled, out);
+                        }
+                        out.write('"');
+                    } else {
+                        out.write('"');
+                        out.append(raw);
+                        out.write('"');
+                    }
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+
+    /*
+     * 读到结束的引号为止, raw里是原始内容(转义保持不变).
+     */
+    private void readString(StringBuilder raw) throws IOException {
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '"') return;
+            raw.append((char) c);
+            if (c == '\\') {
+                c = in.read();
+                if (c < 0) break;
+                raw.append((char) c);
+            }
+        }
+        throw new IOException("unterminated JSON string");
+    }
+
+    private static String unescape(CharSequence raw) throws IOException {
+        StringBuilder text = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            if (++i >= raw.length()) throw new IOException("bad JSON escape");
+            c = raw.charAt(i);
+            switch (c) {
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= raw.length()) throw new IOException("bad JSON escape");
+                    try {
+                        text.append((char) Integer.parseInt(raw.subSequence(i + 1, i + 5).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("bad JSON escape", e);
+                    }
+                    i += 4;
+                    break;
+                default:
+                    text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void escape(String text, Writer out) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    /*
+     * 带缓冲的Reader, 支持跳过开头空白前先看一眼第一个字符.
+     */
+    private static final class Input {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+
+        Input(Reader reader) {
+            this.reader = reader;
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) return true;
+            int read = reader.read(buffer, 0, buffer.length);
+            if (read <= 0) return false;
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        int read() throws IOException {
+            return fill() ? buffer[position++] : -1;
+        }
+
+        /*
+         * 不消耗输入. 开头的空白超过一个buffer时只看buffer里的内容.
+         */
+        int firstNonWhitespace() throws IOException {
+            if (!fill()) return -1;
+            for (int i = position; i < limit; i++) {
+                if (!Character.isWhitespace(buffer[i])) return buffer[i];
+            }
+            return -1;
+        }
+
+        /*
+         * 读一行到line(覆盖), 包括结尾的换行符. 没有内容时返回false.
+         */
+        boolean readLine(StringBuilder line) throws IOException {
+            line.setLength(0);
+            while (fill()) {
+                int start = position;
+                while (position < limit && buffer[position] != '\n') position++;
+                if (position < limit) {
+                    position++;
+                    line.append(buffer, start, position - start);
+                    return true;
+                }
+                line.append(buffer, start, position - start);
+            }
+            return line.length() > 0;
+        }
+    }
+}
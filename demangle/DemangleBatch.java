@@ -0,0 +1,45 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+/*
+ * 批量demangle的列式结果: 所有输出连续放在chars里, 第i个输出为chars[offsets[i], offsets[i + 1]),
+ * status[i]为DemangleResult.Status的ordinal. 失败的条目输出为空.
+ */
+public final class DemangleBatch {
+
+    public static final byte SUCCESS = (byte) DemangleResult.Status.success.ordinal();
+    public static final byte INVALID_PREFIX = (byte) DemangleResult.Status.invalidPrefix.ordinal();
+    public static final byte FAILED = (byte) DemangleResult.Status.failed.ordinal();
+
+    public final int count;
+    public final char[] chars;
+    public final int[] offsets;
+    public final byte[] status;
+
+    DemangleBatch(int count, char[] chars, int[] offsets, byte[] status) {
+        this.count = count;
+        this.chars = chars;
+        this.offsets = offsets;
+        this.status = status;
+    }
+
+    public boolean isSuccess(int i) {
+        return status[i] == SUCCESS;
+    }
+
+    public int start(int i) {
+        return offsets[i];
+    }
+
+    public int end(int i) {
+        return offsets[i + 1];
+    }
+
+    /* 生成第i个输出的String, 只在需要时调用 */
+    public String text(int i) {
+        return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+    }
+}
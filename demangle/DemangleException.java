@@ -0,0 +1,35 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+/*
+ * 抛异常的入口使用, 包装失败的DemangleResult.
+ */
+public class DemangleException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final DemangleResult result;
+
+    public DemangleException(String message, DemangleResult result) {
+        super(message);
+        this.result = result;
+    }
+
+    public DemangleException(DemangleResult result) {
+        this(String.valueOf(result.reason()), result);
+    }
+
+    public DemangleResult result() {
+        return result;
+    }
+
+    public SymbolScanner.MangledExceptionType reason() {
+        return result.reason();
+    }
+
+    public int offset() {
+        return result.offset();
+    }
+}
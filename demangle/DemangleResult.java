@@ -0,0 +1,78 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+/*
+ * 不抛异常的demangle结果. 成功时symbol非空; 失败时给出原因和失败的位置.
+ */
+public final class DemangleResult {
+
+    public enum Status {
+        success, invalidPrefix, failed
+    }
+
+    private static final DemangleResult notMangled = new DemangleResult(Status.invalidPrefix, null, SymbolScanner.MangledExceptionType.invalidPrefix, 0);
+
+    private final Status status;
+    private final SwiftSymbol symbol;
+    private final SymbolScanner.MangledExceptionType reason;
+    private final int offset;
+
+    private DemangleResult(Status status, SwiftSymbol symbol, SymbolScanner.MangledExceptionType reason, int offset) {
+        this.status = status;
+        this.symbol = symbol;
+        this.reason = reason;
+        this.offset = offset;
+    }
+
+    static DemangleResult success(SwiftSymbol symbol) {
+        return new DemangleResult(Status.success, symbol, null, -1);
+    }
+
+    static DemangleResult failure(SymbolScanner.MangledExceptionType reason, int offset) {
+        if (reason == SymbolScanner.MangledExceptionType.invalidPrefix) {
+            return offset == 0 ? notMangled : new DemangleResult(Status.invalidPrefix, null, reason, offset);
+        }
+        return new DemangleResult(Status.failed, null, reason, offset);
+    }
+
+    static DemangleResult notMangled() {
+        return notMangled;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.success;
+    }
+
+    /*
+     * 失败时为null.
+     */
+    public SwiftSymbol symbol() {
+        return symbol;
+    }
+
+    /*
+     * 成功时为null.
+     */
+    public SymbolScanner.MangledExceptionType reason() {
+        return reason;
+    }
+
+    /*
+     * 失败时scanner所在的位置, 成功时为-1.
+     */
+    public int offset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "success" : status + "(" + reason + " at " + offset + ")";
+    }
+}
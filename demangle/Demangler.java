@@ -5,6 +5,8 @@
 
 package demangle;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class Demangler {
@@ -22,25 +24,362 @@ public class Demangler {
     private static int maxRepeatCount = 2048;
     private static int maxNumWords = 26;
 
-    private SymbolScanner scanner;
-    private Stack<SwiftSymbol> nameStack;
-    private List<SwiftSymbol> substitutions;
-    private List<String> words;
+    /*
+     * 标准替换 S<code> 对应的共享节点, 以code为下标.
+     */
+    private static final SwiftSymbol[] standardSubstitutions = new SwiftSymbol[128];
+
+    static {
+        standardType('a', SwiftSymbol.Kind.structure, "Array");
+        standardType('A', SwiftSymbol.Kind.structure, "AutoreleasingUnsafeMutablePointer");
+        standardType('b', SwiftSymbol.Kind.structure, "Bool");
+        standardType('c', SwiftSymbol.Kind.structure, "UnicodeScalar");
+        standardType('D', SwiftSymbol.Kind.structure, "Dictionary");
+        standardType('d', SwiftSymbol.Kind.structure, "Double");
+        standardType('f', SwiftSymbol.Kind.structure, "Float");
+        standardType('h', SwiftSymbol.Kind.structure, "Set");
+        standardType('I', SwiftSymbol.Kind.structure, "DefaultIndices");
+        standardType('i', SwiftSymbol.Kind.structure, "Int");
+        standardType('J', SwiftSymbol.Kind.structure, "Character");
+        standardType('N', SwiftSymbol.Kind.structure, "ClosedRange");
+        standardType('n', SwiftSymbol.Kind.structure, "Range");
+        standardType('O', SwiftSymbol.Kind.structure, "ObjectIdentifier");
+        standardType('p', SwiftSymbol.Kind.structure, "UnsafeMutablePointer");
+        standardType('P', SwiftSymbol.Kind.structure, "UnsafePointer");
+        standardType('R', SwiftSymbol.Kind.structure, "UnsafeBufferPointer");
+        standardType('r', SwiftSymbol.Kind.structure, "UnsafeMutableBufferPointer");
+        standardType('S', SwiftSymbol.Kind.structure, "String");
+        standardType('s', SwiftSymbol.Kind.structure, "Substring");
+        standardType('u', SwiftSymbol.Kind.structure, "UInt");
+        standardType('v', SwiftSymbol.Kind.structure, "UnsafeMutableRawPointer");
+        standardType('V', SwiftSymbol.Kind.structure, "UnsafeRawPointer");
+        standardType('W', SwiftSymbol.Kind.structure, "UnsafeRawBufferPointer");
+        standardType('w', SwiftSymbol.Kind.structure, "UnsafeMutableRawBufferPointer");
+        standardType('q', SwiftSymbol.Kind.theEnum, "Optional");
+        standardType('B', SwiftSymbol.Kind.protocol, "Optional");
+        standardType('E', SwiftSymbol.Kind.protocol, "Encodable");
+        standardType('e', SwiftSymbol.Kind.protocol, "Decodable");
+        standardType('F', SwiftSymbol.Kind.protocol, "FloatingPoint");
+        standardType('G', SwiftSymbol.Kind.protocol, "RandomNumberGenerator");
+        standardType('H', SwiftSymbol.Kind.protocol, "Hashable");
+        standardType('j', SwiftSymbol.Kind.protocol, "Numeric");
+        standardType('K', SwiftSymbol.Kind.protocol, "BidirectionalCollection");
+        standardType('k', SwiftSymbol.Kind.protocol, "RandomAccessCollection");
+        standardType('L', SwiftSymbol.Kind.protocol, "Comparable");
+        standardType('l', SwiftSymbol.Kind.protocol, "Collection");
+        standardType('M', SwiftSymbol.Kind.protocol, "MutableCollection");
+        standardType('m', SwiftSymbol.Kind.protocol, "RangeReplaceableCollection");
+        standardType('Q', SwiftSymbol.Kind.protocol, "Equatable");
+        standardType('T', SwiftSymbol.Kind.protocol, "Sequence");
+        standardType('t', SwiftSymbol.Kind.protocol, "IteratorProtocol");
+        standardType('U', SwiftSymbol.Kind.protocol, "UnsignedInteger");
+        standardType('X', SwiftSymbol.Kind.protocol, "RangeExpression");
+        standardType('x', SwiftSymbol.Kind.protocol, "Strideable");
+        standardType('Y', SwiftSymbol.Kind.protocol, "RawRepresentable");
+        standardType('y', SwiftSymbol.Kind.protocol, "StringProtocol");
+        standardType('Z', SwiftSymbol.Kind.protocol, "SignedInteger");
+        standardType('z', SwiftSymbol.Kind.protocol, "BinaryInteger");
+    }
+
+    private static void standardType(char code, SwiftSymbol.Kind kind, String name) {
+        standardSubstitutions[code] = SwiftSymbol.sharedStdlibType(kind, name);
+    }
+
+    /*
+     * 操作符字符 -> handler, 代替原来的大switch. 表中没有的字符按匹配失败处理
+     * (demangleOperator中按标识符处理).
+     */
+    @FunctionalInterface
+    private interface OperatorHandler {
+        SwiftSymbol demangle(Demangler demangler, char c) throws Exception;
+    }
+
+    private static final OperatorHandler[] operators = new OperatorHandler[128];
+    private static final OperatorHandler[] thunks = new OperatorHandler[128];
+    private static final OperatorHandler[] witnesses = new OperatorHandler[128];
+    private static final OperatorHandler[] specialTypes = new OperatorHandler[128];
+    private static final SwiftSymbol.Kind[] outlinedOperations = new SwiftSymbol.Kind[128];
+
+    static {
+        for (char c = 1; c <= 0xC; c++) {
+            operators[c] = (d, ch) -> new SwiftSymbol(SwiftSymbol.Kind.unresolvedSymbolicReference, new SafeArrayList<>(), new Contents());
+        }
+        operators['A'] = (d, c) -> d.demangleMultiSubstitutions();
+        operators['B'] = (d, c) -> d.demangleBuiltinType();
+        operators['C'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.theClass);
+        operators['D'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.typeMangling, d.require(d.pop(SwiftSymbol.Kind.type)));
+        operators['E'] = (d, c) -> d.demangleExtensionContext();
+        operators['F'] = (d, c) -> d.demanglePlainFunction();
+        operators['G'] = (d, c) -> d.demangleBoundGenericType();
+        operators['I'] = (d, c) -> d.demangleImplFunctionType();
+        operators['K'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.throwsAnnotation, (SwiftSymbol) null);
+        operators['L'] = (d, c) -> d.demangleLocalIdentifier();
+        operators['M'] = (d, c) -> d.demangleMetatype();
+        operators['N'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.typeMetadata, d.require(d.pop(SwiftSymbol.Kind.type)));
+        operators['O'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.theEnum);
+        operators['P'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.protocol);
+        operators['Q'] = (d, c) -> d.demangleArchetype();
+        operators['R'] = (d, c) -> d.demangleGenericRequirement();
+        operators['S'] = (d, c) -> d.demangleStandardSubstitution();
+        operators['T'] = (d, c) -> d.demangleThunkOrSpecialization();
+        operators['V'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.structure);
+        operators['W'] = (d, c) -> d.demangleWitness();
+        operators['X'] = (d, c) -> d.demangleSpecialType();
+        operators['Z'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.theStatic, d.require(d.pop(kind -> kind.isEntity())));
+        operators['a'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.typeAlias);
+        operators['c'] = (d, c) -> d.require(d.popFunctionType(SwiftSymbol.Kind.functionType));
+        operators['d'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.variadicMarker, (SwiftSymbol) null);
+        operators['f'] = (d, c) -> d.demangleFunctionEntity();
+        operators['g'] = (d, c) -> d.demangleRetroactiveConformance();
+        operators['h'] = (d, c) -> SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.shared, d.require(d.popTypeAndGetChild()));
+        operators['i'] = (d, c) -> d.demangleSubscript();
+        operators['l'] = (d, c) -> d.demangleGenericSignature(false);
+        operators['m'] = (d, c) -> SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.type, d.require(d.pop(SwiftSymbol.Kind.type)));
+        operators['n'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.owned, d.popTypeAndGetChild());
+        operators['o'] = (d, c) -> d.demangleOperatorIdentifier();
+        operators['p'] = (d, c) -> d.demangleProtocolListType();
+        operators['q'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.type, d.demangleGenericParamIndex());
+        operators['r'] = (d, c) -> d.demangleGenericSignature(true);
+        operators['s'] = (d, c) -> SwiftSymbol.sharedModule(stdlibName);
+        operators['t'] = (d, c) -> d.popTuple();
+        operators['u'] = (d, c) -> d.demangleGenericType();
+        operators['v'] = (d, c) -> d.demangleVariable();
+        operators['w'] = (d, c) -> d.demangleValueWitness();
+        operators['x'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.type, d.getDependentGenericParamType(0, 0));
+        operators['y'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.emptyList, (SwiftSymbol) null);
+        operators['z'] = (d, c) -> SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.inOut, d.require(d.popTypeAndGetChild()));
+        operators['_'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.firstElementMarker, (SwiftSymbol) null);
+        operators['.'] = (d, c) -> {
+            d.scanner.backtrack(1);
+            return new SwiftSymbol(SwiftSymbol.Kind.suffix, new SafeArrayList(), new Contents(d.scanner.remainder()));
+        };
+
+        thunks['c'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.curryThunk, d.require(d.pop(kind -> kind.isEntity())));
+        thunks['j'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.dispatchThunk, d.require(d.pop(kind -> kind.isEntity())));
+        thunks['q'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.methodDescriptor, d.require(d.pop(kind -> kind.isEntity())));
+        thunks['o'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.objCAttribute, (SwiftSymbol) null);
+        thunks['O'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.nonObjCAttribute, (SwiftSymbol) null);
+        thunks['D'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.dynamicAttribute, (SwiftSymbol) null);
+        thunks['d'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.directMethodReferenceAttribute, (SwiftSymbol) null);
+        thunks['a'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.partialApplyObjCForwarder, (SwiftSymbol) null);
+        thunks['A'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.partialApplyForwarder, (SwiftSymbol) null);
+        thunks['m'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.mergedFunction, (SwiftSymbol) null);
+        thunks['C'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.coroutineContinuationPrototype, d.require(d.pop(SwiftSymbol.Kind.type)));
+        thunks['V'] = (d, c) -> d.demangleVTableThunk();
+        thunks['W'] = (d, c) -> d.demangleProtocolWitness();
+        thunks['R'] = (d, c) -> d.demangleReabstractionThunk(SwiftSymbol.Kind.reabstractionThunkHelper);
+        thunks['r'] = (d, c) -> d.demangleReabstractionThunk(SwiftSymbol.Kind.reabstractionThunk);
+        thunks['g'] = (d, c) -> d.demangleGenericSpecialization(SwiftSymbol.Kind.genericSpecialization);
+        thunks['G'] = (d, c) -> d.demangleGenericSpecialization(SwiftSymbol.Kind.genericSpecializationNotReAbstracted);
+        thunks['P'] = (d, c) -> d.demangleGenericPartialSpecialization(SwiftSymbol.Kind.genericSpecializationNotReAbstracted);
+        thunks['p'] = (d, c) -> d.demangleGenericPartialSpecialization(SwiftSymbol.Kind.genericPartialSpecialization);
+        thunks['f'] = (d, c) -> d.demangleFunctionSpecialization();
+        thunks['K'] = (d, c) -> d.demangleKeyPathAccessorThunk(SwiftSymbol.Kind.keyPathGetterThunkHelper);
+        thunks['k'] = (d, c) -> d.demangleKeyPathAccessorThunk(SwiftSymbol.Kind.keyPathSetterThunkHelper);
+        thunks['l'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.associatedTypeDescriptor, d.require(d.popAssociatedTypeName()));
+        thunks['L'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.protocolRequirementsBaseDescriptor, d.require(d.popProtocol()));
+        thunks['M'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.defaultAssociatedTypeMetadataAccessor, d.require(d.popAssociatedTypeName()));
+        thunks['n'] = (d, c) -> d.demangleAssociatedConformance(SwiftSymbol.Kind.associatedConformanceDescriptor);
+        thunks['N'] = (d, c) -> d.demangleAssociatedConformance(SwiftSymbol.Kind.defaultAssociatedConformanceAccessor);
+        thunks['H'] = (d, c) -> d.demangleKeyPathIndexThunk(SwiftSymbol.Kind.keyPathEqualsThunkHelper);
+        thunks['h'] = (d, c) -> d.demangleKeyPathIndexThunk(SwiftSymbol.Kind.keyPathHashThunkHelper);
+        thunks['v'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.outlinedVariable, null, new Contents(d.demangleIndex()));
+        thunks['e'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.outlinedBridgedMethod, null, new Contents(d.demangleBridgedMethodParams()));
+
+        witnesses['C'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.enumCase, d.require(d.pop(kind -> kind.isEntity())));
+        witnesses['V'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.valueWitnessTable, d.require(d.pop(SwiftSymbol.Kind.type)));
+        witnesses['v'] = (d, c) -> d.demangleFieldOffset();
+        witnesses['P'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTable, d.popProtocolConformance());
+        witnesses['p'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTablePattern, d.popProtocolConformance());
+        witnesses['G'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.genericProtocolWitnessTable, d.popProtocolConformance());
+        witnesses['I'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.genericProtocolWitnessTableInstantiationFunction, d.popProtocolConformance());
+        witnesses['r'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.resilientProtocolWitnessTable, d.popProtocolConformance());
+        witnesses['l'] = (d, c) -> d.demangleLazyProtocolWitnessTable(SwiftSymbol.Kind.lazyProtocolWitnessTableAccessor);
+        witnesses['L'] = (d, c) -> d.demangleLazyProtocolWitnessTable(SwiftSymbol.Kind.lazyProtocolWitnessTableCacheVariable);
+        witnesses['a'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTableAccessor, d.popProtocolConformance());
+        witnesses['t'] = (d, c) -> d.demangleAssociatedTypeMetadataAccessor();
+        witnesses['T'] = (d, c) -> d.demangleAssociatedTypeWitnessTableAccessor();
+        witnesses['O'] = (d, c) -> d.demangleOutlinedOperation();
+
+        outlinedOperations['y'] = SwiftSymbol.Kind.outlinedCopy;
+        outlinedOperations['e'] = SwiftSymbol.Kind.outlinedConsume;
+        outlinedOperations['r'] = SwiftSymbol.Kind.outlinedRetain;
+        outlinedOperations['s'] = SwiftSymbol.Kind.outlinedRelease;
+        outlinedOperations['b'] = SwiftSymbol.Kind.outlinedInitializeWithTake;
+        outlinedOperations['c'] = SwiftSymbol.Kind.outlinedInitializeWithCopy;
+        outlinedOperations['d'] = SwiftSymbol.Kind.outlinedAssignWithTake;
+        outlinedOperations['f'] = SwiftSymbol.Kind.outlinedAssignWithCopy;
+        outlinedOperations['h'] = SwiftSymbol.Kind.outlinedDestroy;
+
+        specialTypes['E'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.noEscapeFunctionType);
+        specialTypes['A'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.escapingAutoClosureType);
+        specialTypes['f'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.thinFunctionType);
+        specialTypes['K'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.autoClosureType);
+        specialTypes['U'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.uncurriedFunctionType);
+        specialTypes['B'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.objCBlock);
+        specialTypes['C'] = (d, c) -> d.popFunctionType(SwiftSymbol.Kind.cFunctionPointer);
+        specialTypes['o'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.unowned, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['u'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.unmanaged, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['w'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.weak, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['b'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.silBoxType, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['D'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.dynamicSelf, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['M'] = (d, c) -> d.demangleMetatypeWithRepresentation(SwiftSymbol.Kind.metatype);
+        specialTypes['m'] = (d, c) -> d.demangleMetatypeWithRepresentation(SwiftSymbol.Kind.existentialMetatype);
+        specialTypes['p'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.existentialMetatype, d.require(d.pop(SwiftSymbol.Kind.type)));
+        specialTypes['c'] = (d, c) -> d.demangleProtocolListWithClass();
+        specialTypes['l'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.protocolListWithAnyObject, d.demangleProtocolList());
+        specialTypes['X'] = (d, c) -> d.demangleSilBoxTypeWithLayout(c);
+        specialTypes['x'] = (d, c) -> d.demangleSilBoxTypeWithLayout(c);
+        specialTypes['Y'] = (d, c) -> d.demangleAnyGenericType(SwiftSymbol.Kind.otherNominalType);
+        specialTypes['Z'] = (d, c) -> d.demangleAnonymousContext();
+        specialTypes['e'] = (d, c) -> new SwiftSymbol(SwiftSymbol.Kind.type, new SwiftSymbol(SwiftSymbol.Kind.errorType, (SwiftSymbol) null));
+    }
+
+    private SwiftSymbol dispatch(OperatorHandler[] table, char c) throws Exception {
+        OperatorHandler handler = c < table.length ? table[c] : null;
+        if (handler == null) {
+            scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
+        }
+        return handler.demangle(this, c);
+    }
+
+    private final SymbolScanner scanner = new SymbolScanner();
+    private final SymbolStack nameStack = new SymbolStack();
+    private final List<SwiftSymbol> substitutions = new SafeArrayList<>();
+    // 单词替换表, 只记录单词在输入中的span
+    private final int[] wordStarts = new int[maxNumWords];
+    private final int[] wordEnds = new int[maxNumWords];
+    private int numWords;
+    private final StringBuilder identifier = new StringBuilder();
+    private byte[] directBytes;
     private boolean isOldFunctionTypeMangling;
+    // 被MMSwiftDemangle的线程缓存借出时为true
+    boolean busy;
+
+    /*
+     * 空的Demangler, 需要先调用reset(...)再demangleSymbol().
+     * 同一个实例可以反复reset, 已分配的数组会保留.
+     */
+    public Demangler() {
+    }
+
+    public Demangler(String mangled) {
+        reset(mangled);
+    }
+
+    /*
+     * 直接从UTF-8字节demangle. 符号本身是ASCII, 只有punycode标识符需要解码;
+     * 含非ASCII字节时按UTF-8解码后走String路径.
+     */
+    public Demangler(byte[] bytes, int offset, int length) {
+        reset(bytes, offset, length);
+    }
 
-    public Demangler(String mangled) throws Exception {
-        this.scanner = new SymbolScanner(mangled);
-        reset();
+    /*
+     * 从position到limit的字节, 不改变buffer的position.
+     * heap buffer直接扫描底层数组, direct buffer先整块复制出来.
+     */
+    public Demangler(ByteBuffer buffer) {
+        reset(buffer);
     }
 
-    private void reset() {
-        this.nameStack = new Stack<>();
-        this.substitutions = new SafeArrayList<>();
-        this.words = new SafeArrayList<>();
-        this.scanner.reset();
+    public void reset(CharSequence mangled) {
+        scanner.reset(mangled);
+        resetState();
     }
 
+    public void reset(CharSequence mangled, int start, int end) {
+        scanner.reset(mangled, start, end);
+        resetState();
+    }
+
+    public void reset(char[] chars, int offset, int length) {
+        scanner.reset(chars, offset, length);
+        resetState();
+    }
+
+    public void reset(byte[] bytes, int offset, int length) {
+        if (SymbolScanner.isAscii(bytes, offset, length)) {
+            scanner.reset(bytes, offset, length);
+        } else {
+            scanner.reset(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+        resetState();
+    }
+
+    /*
+     * heap buffer直接扫描底层数组, direct buffer先复制到复用的数组里.
+     */
+    public void reset(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        int count = buffer.remaining();
+        if (directBytes == null || directBytes.length < count) {
+            directBytes = new byte[Math.max(count, 64)];
+        }
+        buffer.duplicate().get(directBytes, 0, count);
+        reset(directBytes, 0, count);
+    }
+
+    /*
+     * 释放对输入和上一次结果的引用, 保留容量.
+     */
+    public void clear() {
+        scanner.clear();
+        resetState();
+    }
+
+    private void resetState() {
+        nameStack.clear();
+        substitutions.clear();
+        numWords = 0;
+        isOldFunctionTypeMangling = false;
+    }
+
+    /*
+     * 失败时抛出DemangleException, 原因和位置见DemangleException.result().
+     */
     public SwiftSymbol demangleSymbol() throws Exception {
+        try {
+            return demangleTopLevel();
+        } catch (SymbolScanner.MangledException signal) {
+            throw new DemangleException(DemangleResult.failure(signal.type(), scanner.failureOffset()));
+        }
+    }
+
+    /*
+     * 失败时返回null, 不分配结果对象, 原因见scanner. 用于批量处理.
+     * 只把畸形输入的失败当作null, 其他异常(程序错误)照常抛出.
+     */
+    SwiftSymbol demangleOrNull() {
+        try {
+            return demangleTopLevel();
+        } catch (SymbolScanner.MangledException | IndexOutOfBoundsException e) {
+            return null;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * 不抛异常的demangle. 失败时不创建异常对象, 返回原因和失败位置.
+     */
+    public DemangleResult tryDemangleSymbol() {
+        try {
+            return DemangleResult.success(demangleTopLevel());
+        } catch (SymbolScanner.MangledException signal) {
+            return DemangleResult.failure(signal.type(), scanner.failureOffset());
+        } catch (Exception e) {
+            // 畸形输入除了MangledException, 还可能在读取输入或数组时触发IndexOutOfBoundsException
+            return DemangleResult.failure(SymbolScanner.MangledExceptionType.unexpected, scanner.position());
+        }
+    }
+
+    private SwiftSymbol demangleTopLevel() throws Exception {
         if (scanner.conditional("_Tt")) {
             return demangleObjCTypeName();
         } else if (scanner.conditional("_T")) {
@@ -65,131 +404,27 @@ public class Demangler {
         } else if (char0 == '$' && (char1 == 'S' || char1 == 's')) {
             return;
         } else {
-            throw new Exception("<readManglingPrefix()>: prefix is not validate!");
+            scanner.throwException(SymbolScanner.MangledExceptionType.invalidPrefix);
         }
     }
 
     private void parseAndPushNames() throws Exception {
         while (!scanner.isAtEnd()) {
-            nameStack.add(demangleOperator());
+            nameStack.push(demangleOperator());
         }
     }
 
     private SwiftSymbol demangleOperator() throws Exception {
         char c = scanner.readChar();
-        switch (c) {
-            case 0xFF:
-            case 1:
-            case 2:
-            case 3:
-            case 4:
-            case 5:
-            case 6:
-            case 7:
-            case 8:
-            case 9:
-            case 0xA:
-            case 0xB:
-            case 0xC: {
-                return new SwiftSymbol(SwiftSymbol.Kind.unresolvedSymbolicReference, new SafeArrayList<>(), new Contents());
-            }
-            case 'A':
-                return demangleMultiSubstitutions();
-            case 'B':
-                return demangleBuiltinType();
-            case 'C':
-                return demangleAnyGenericType(SwiftSymbol.Kind.theClass);
-            case 'D':
-                return new SwiftSymbol(SwiftSymbol.Kind.typeMangling, require(pop(SwiftSymbol.Kind.type)));
-            case 'E':
-                return demangleExtensionContext();
-            case 'F':
-                return demanglePlainFunction();
-            case 'G':
-                return demangleBoundGenericType();
-            case 'I':
-                return demangleImplFunctionType();
-            case 'K':
-                return new SwiftSymbol(SwiftSymbol.Kind.throwsAnnotation, (SwiftSymbol) null);
-            case 'L':
-                return demangleLocalIdentifier();
-            case 'M':
-                return demangleMetatype();
-            case 'N':
-                return new SwiftSymbol(SwiftSymbol.Kind.typeMetadata, require(pop(SwiftSymbol.Kind.type)));
-            case 'O':
-                return demangleAnyGenericType(SwiftSymbol.Kind.theEnum);
-            case 'P':
-                return demangleAnyGenericType(SwiftSymbol.Kind.protocol);
-            case 'Q':
-                return demangleArchetype();
-            case 'R':
-                return demangleGenericRequirement();
-            case 'S':
-                return demangleStandardSubstitution();
-            case 'T':
-                return demangleThunkOrSpecialization();
-            case 'V':
-                return demangleAnyGenericType(SwiftSymbol.Kind.structure);
-            case 'W':
-                return demangleWitness();
-            case 'X':
-                return demangleSpecialType();
-            case 'Z':
-                return new SwiftSymbol(SwiftSymbol.Kind.theStatic, require(pop(kind -> kind.isEntity())));
-            case 'a':
-                return demangleAnyGenericType(SwiftSymbol.Kind.typeAlias);
-            case 'c':
-                return require(popFunctionType(SwiftSymbol.Kind.functionType));
-            case 'd':
-                return new SwiftSymbol(SwiftSymbol.Kind.variadicMarker, (SwiftSymbol) null);
-            case 'f':
-                return demangleFunctionEntity();
-            case 'g':
-                return demangleRetroactiveConformance();
-            case 'h':
-                return SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.shared, require(popTypeAndGetChild()));
-            case 'i':
-                return demangleSubscript();
-            case 'l':
-                return demangleGenericSignature(false);
-            case 'm':
-                return SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.type, require(pop(SwiftSymbol.Kind.type)));
-            case 'n':
-                return new SwiftSymbol(SwiftSymbol.Kind.owned, popTypeAndGetChild());
-            case 'o':
-                return demangleOperatorIdentifier();
-            case 'p':
-                return demangleProtocolListType();
-            case 'q':
-                return new SwiftSymbol(SwiftSymbol.Kind.type, demangleGenericParamIndex());
-            case 'r':
-                return demangleGenericSignature(true);
-            case 's':
-                return new SwiftSymbol(SwiftSymbol.Kind.module, new SafeArrayList(), new Contents(stdlibName));
-            case 't':
-                return popTuple();
-            case 'u':
-                return demangleGenericType();
-            case 'v':
-                return demangleVariable();
-            case 'w':
-                return demangleValueWitness();
-            case 'x':
-                return new SwiftSymbol(SwiftSymbol.Kind.type, getDependentGenericParamType(0, 0));
-            case 'y':
-                return new SwiftSymbol(SwiftSymbol.Kind.emptyList, (SwiftSymbol) null);
-            case 'z':
-                return SwiftSymbol.SwiftSymbolWithChild(SwiftSymbol.Kind.inOut, require(popTypeAndGetChild()));
-            case '_':
-                return new SwiftSymbol(SwiftSymbol.Kind.firstElementMarker, (SwiftSymbol) null);
-            case '.':
-                scanner.backtrack(1);
-                return new SwiftSymbol(SwiftSymbol.Kind.suffix, new SafeArrayList(), new Contents(scanner.remainder()));
-            default:
-                scanner.backtrack(1);
-                return demangleIdentifier();
+        OperatorHandler handler = c < operators.length ? operators[c] : null;
+        if (handler != null) {
+            return handler.demangle(this, c);
+        }
+        if (c == 0xFF) {
+            return new SwiftSymbol(SwiftSymbol.Kind.unresolvedSymbolicReference, new SafeArrayList<>(), new Contents());
         }
+        scanner.backtrack(1);
+        return demangleIdentifier();
     }
 
     private void popTopLevelInto(SwiftSymbol parent) throws Exception {
@@ -207,7 +442,8 @@ public class Demangler {
                     parent.children.add(funcAttr);
             }
         }
-        for (SwiftSymbol name : nameStack) {
+        for (int i = 0; i < nameStack.size(); i++) {
+            SwiftSymbol name = nameStack.get(i);
             switch (name.kind) {
                 case type:
                     parent.children.add(require(name.children.get(0)));
@@ -255,7 +491,7 @@ public class Demangler {
         SwiftSymbol nd = substitutions.get(index);
         require(nd);
         if (repeatCount > 1) {
-            while (repeatCount-- > 1) nameStack.add(nd);
+            while (repeatCount-- > 1) nameStack.push(nd);
         }
         return nd;
     }
@@ -267,8 +503,8 @@ public class Demangler {
     }
 
     private SwiftSymbol pop(SwiftSymbol.Kind kind) {
-        if (nameStack.size() < 1) return null;
-        SwiftSymbol last = nameStack.get(nameStack.size() - 1);
+        SwiftSymbol last = nameStack.peek();
+        if (last == null) return null;
         if (last.kind == kind) {
             return pop();
         } else {
@@ -276,8 +512,10 @@ public class Demangler {
         }
     }
 
-    private SwiftSymbol pop(DemanglerCallback callback) {
-        SwiftSymbol last = nameStack.get(nameStack.size() - 1);
+    private SwiftSymbol pop(DemanglerCallback callback) throws Exception {
+        /* 与原来Vector.get(size - 1)一致, 栈为空时失败而不是返回null */
+        require(nameStack.size() > 0);
+        SwiftSymbol last = nameStack.peek();
         if (last == null) return null;
         if (callback.dealKind(last.kind)) return pop();
         return null;
@@ -438,7 +676,7 @@ public class Demangler {
     }
 
     private SwiftSymbol popTypeAndGetChild() throws Exception {
-        return require(pop(SwiftSymbol.Kind.type).children.get(0));
+        return require(require(pop(SwiftSymbol.Kind.type)).children.get(0));
     }
 
     private SwiftSymbol popTypeAndGetAnyGeneric() throws Exception {
@@ -513,9 +751,9 @@ public class Demangler {
     private SwiftSymbol demangleStandardSubstitution() throws Exception {
         switch (scanner.readChar()) {
             case 'o':
-                return new SwiftSymbol(SwiftSymbol.Kind.module, new SafeArrayList(), new Contents(objcModule));
+                return SwiftSymbol.sharedModule(objcModule);
             case 'C':
-                return new SwiftSymbol(SwiftSymbol.Kind.module, new SafeArrayList(), new Contents(cModule));
+                return SwiftSymbol.sharedModule(cModule);
             case 'g': {
                 SwiftSymbol child1 = new SwiftSymbol(SwiftSymbol.Kind.theEnum, "Optional");
                 SwiftSymbol child2 = new SwiftSymbol(SwiftSymbol.Kind.typeList, require(pop(SwiftSymbol.Kind.type)));
@@ -528,161 +766,12 @@ public class Demangler {
                 int dn = demangleNatural();
                 int repeatCount = dn > 0 ? dn : 0;
                 require(repeatCount <= maxRepeatCount);
-                SwiftSymbol nd = null;
-                switch (scanner.readChar()) {
-                    case 'a':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Array");
-                        break;
-                    case 'A':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "AutoreleasingUnsafeMutablePointer");
-                        break;
-                    case 'b':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Bool");
-                        break;
-                    case 'c':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnicodeScalar");
-                        break;
-                    case 'D':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Dictionary");
-                        break;
-                    case 'd':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Double");
-                        break;
-                    case 'f':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Float");
-                        break;
-                    case 'h':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Set");
-                        break;
-                    case 'I':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "DefaultIndices");
-                        break;
-                    case 'i':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Int");
-                        break;
-                    case 'J':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Character");
-                        break;
-                    case 'N':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "ClosedRange");
-                        break;
-                    case 'n':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Range");
-                        break;
-                    case 'O':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "ObjectIdentifier");
-                        break;
-                    case 'p':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeMutablePointer");
-                        break;
-                    case 'P':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafePointer");
-                        break;
-                    case 'R':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeBufferPointer");
-                        break;
-                    case 'r':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeMutableBufferPointer");
-                        break;
-                    case 'S':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "String");
-                        break;
-                    case 's':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "Substring");
-                        break;
-                    case 'u':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UInt");
-                        break;
-                    case 'v':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeMutableRawPointer");
-                        break;
-                    case 'V':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeRawPointer");
-                        break;
-                    case 'W':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeRawBufferPointer");
-                        break;
-                    case 'w':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.structure, "UnsafeMutableRawBufferPointer");
-                        break;
-                    case 'q':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.theEnum, "Optional");
-                        break;
-                    case 'B':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Optional");
-                        break;
-                    case 'E':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Encodable");
-                        break;
-                    case 'e':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Decodable");
-                        break;
-                    case 'F':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "FloatingPoint");
-                        break;
-                    case 'G':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "RandomNumberGenerator");
-                        break;
-                    case 'H':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Hashable");
-                        break;
-                    case 'j':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Numeric");
-                        break;
-                    case 'K':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "BidirectionalCollection");
-                        break;
-                    case 'k':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "RandomAccessCollection");
-                        break;
-                    case 'L':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Comparable");
-                        break;
-                    case 'l':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Collection");
-                        break;
-                    case 'M':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "MutableCollection");
-                        break;
-                    case 'm':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "RangeReplaceableCollection");
-                        break;
-                    case 'Q':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Equatable");
-                        break;
-                    case 'T':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Sequence");
-                        break;
-                    case 't':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "IteratorProtocol");
-                        break;
-                    case 'U':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "UnsignedInteger");
-                        break;
-                    case 'X':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "RangeExpression");
-                        break;
-                    case 'x':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "Strideable");
-                        break;
-                    case 'Y':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "RawRepresentable");
-                        break;
-                    case 'y':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "StringProtocol");
-                        break;
-                    case 'Z':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "SignedInteger");
-                        break;
-                    case 'z':
-                        nd = new SwiftSymbol(SwiftSymbol.Kind.protocol, "BinaryInteger");
-                        break;
-                    default:
-                        scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                }
+                char code = scanner.readChar();
+                SwiftSymbol nd = code < standardSubstitutions.length ? standardSubstitutions[code] : null;
+                if (nd == null) scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
                 if (repeatCount > 1) {
                     for (int i = 0; i < repeatCount - 1; i++) {
-                        if (nd != null) nameStack.add(nd);
+                        if (nd != null) nameStack.push(nd);
                     }
                 }
                 return nd;
@@ -705,7 +794,19 @@ public class Demangler {
             scanner.backtrack(1);
         }
 
-        String identifier = "";
+        if (!hasWordSubs && !isPunycoded) {
+            // 最常见的情况: 单段标识符, 直接引用输入中的span.
+            int numChars = require(demangleNatural());
+            require(numChars > 0);
+            int start = scanner.readSpan(numChars);
+            addWords(start, start + numChars);
+            SwiftSymbol result = new SwiftSymbol(SwiftSymbol.Kind.identifier, new SafeArrayList(), scanner.spanContents(start, start + numChars));
+            substitutions.add(result);
+            return result;
+        }
+
+        StringBuilder identifier = this.identifier;
+        identifier.setLength(0);
         do {
             while (hasWordSubs && Character.isLetter(scanner.peek(0))) {
                 char c_ = scanner.readChar();
@@ -717,7 +818,8 @@ public class Demangler {
                     hasWordSubs = false;
                 }
                 require(wordIndex < maxNumWords);
-                identifier = identifier + require(words.get(wordIndex));
+                require(wordIndex < numWords);
+                scanner.appendTo(identifier, wordStarts[wordIndex], wordEnds[wordIndex]);
             }
             if (scanner.conditional("0")) break;
             int numChars = require(demangleNatural());
@@ -725,43 +827,58 @@ public class Demangler {
             if (isPunycoded) {
                 scanner.conditional("_");
             }
-            String text = scanner.readChars(numChars);
             if (isPunycoded) {
-                identifier += decodeSwiftPunycode(text);
+                identifier.append(decodeSwiftPunycode(scanner.readChars(numChars)));
             } else {
-                identifier += text;
-                String word = null;
-                for (char c__ : text.toCharArray()) {
-                    if (word == null && !Character.isDigit(c__) && c__ != '_' && words.size() < maxNumWords) {
-                        word = String.valueOf(c__);
-                    } else if (word != null) {
-                        String w = word;
-                        char[] charArr = w.toCharArray();
-                        if (c__ == '_' || (Character.isUpperCase(charArr[charArr.length - 1]) == false && Character.isUpperCase(c__))) {
-                            if (w.length() >= 2) {
-                                words.add(w);
-                            }
-                            if (!Character.isDigit(c__) && c__ != '_' && word.length() < maxNumWords) {
-                                word = String.valueOf(c__);
-                            } else {
-                                word = null;
-                            }
-                        } else {
-                            word += c__;
-                        }
-                    }
-                }
-                if (word != null && word.length() >= 2) {
-                    words.add(word);
-                }
+                int start = scanner.readSpan(numChars);
+                scanner.appendTo(identifier, start, start + numChars);
+                addWords(start, start + numChars);
             }
         } while (hasWordSubs);
-        require(!identifier.isEmpty());
-        SwiftSymbol result = new SwiftSymbol(SwiftSymbol.Kind.identifier, new SafeArrayList(), new Contents(identifier));
+        require(identifier.length() != 0);
+        SwiftSymbol result = new SwiftSymbol(SwiftSymbol.Kind.identifier, new SafeArrayList(), new Contents(identifier.toString()));
         substitutions.add(result);
         return result;
     }
 
+    /*
+     * 把[start, end)中的单词记入words, 供后续的单词替换使用.
+     */
+    private void addWords(int start, int end) {
+        int wordStart = -1;
+        for (int i = start; i < end; i++) {
+            char c__ = scanner.charAt(i);
+            if (wordStart < 0 && !Character.isDigit(c__) && c__ != '_' && numWords < maxNumWords) {
+                wordStart = i;
+            } else if (wordStart >= 0) {
+                char last = scanner.charAt(i - 1);
+                if (c__ == '_' || (Character.isUpperCase(last) == false && Character.isUpperCase(c__))) {
+                    if (i - wordStart >= 2) {
+                        addWord(wordStart, i);
+                    }
+                    if (!Character.isDigit(c__) && c__ != '_' && i - wordStart < maxNumWords) {
+                        wordStart = i;
+                    } else {
+                        wordStart = -1;
+                    }
+                }
+            }
+        }
+        if (wordStart >= 0 && end - wordStart >= 2) {
+            addWord(wordStart, end);
+        }
+    }
+
+    /*
+     * 超过maxNumWords的单词不会被引用到, 直接丢弃.
+     */
+    private void addWord(int start, int end) {
+        if (numWords == maxNumWords) return;
+        wordStarts[numWords] = start;
+        wordEnds[numWords] = end;
+        numWords++;
+    }
+
     private SwiftSymbol demangleOperatorIdentifier() throws Exception {
         SwiftSymbol ident = require(pop(SwiftSymbol.Kind.identifier));
         char[] opCharTable = "& @/= >    <*!|+?%-~   ^ .".toCharArray();
@@ -1320,151 +1437,101 @@ public class Demangler {
     }
 
     private SwiftSymbol demangleThunkOrSpecialization() throws Exception {
-        char c = scanner.readChar();
-        switch (c) {
-            case 'c':
-                return new SwiftSymbol(SwiftSymbol.Kind.curryThunk, require(pop(kind -> kind.isEntity())));
-            case 'j':
-                return new SwiftSymbol(SwiftSymbol.Kind.dispatchThunk, require(pop(kind -> kind.isEntity())));
-            case 'q':
-                return new SwiftSymbol(SwiftSymbol.Kind.methodDescriptor, require(pop(kind -> kind.isEntity())));
-            case 'o':
-                return new SwiftSymbol(SwiftSymbol.Kind.objCAttribute, (SwiftSymbol) null);
-            case 'O':
-                return new SwiftSymbol(SwiftSymbol.Kind.nonObjCAttribute, (SwiftSymbol) null);
-            case 'D':
-                return new SwiftSymbol(SwiftSymbol.Kind.dynamicAttribute, (SwiftSymbol) null);
-            case 'd':
-                return new SwiftSymbol(SwiftSymbol.Kind.directMethodReferenceAttribute, (SwiftSymbol) null);
-            case 'a':
-                return new SwiftSymbol(SwiftSymbol.Kind.partialApplyObjCForwarder, (SwiftSymbol) null);
-            case 'A':
-                return new SwiftSymbol(SwiftSymbol.Kind.partialApplyForwarder, (SwiftSymbol) null);
-            case 'm':
-                return new SwiftSymbol(SwiftSymbol.Kind.mergedFunction, (SwiftSymbol) null);
-            case 'C':
-                return new SwiftSymbol(SwiftSymbol.Kind.coroutineContinuationPrototype, require(pop(SwiftSymbol.Kind.type)));
-            case 'V': {
-                SwiftSymbol base = require(pop(kind -> kind.isEntity()));
-                SwiftSymbol derived = require(pop(kind -> kind.isEntity()));
-                return new SwiftSymbol(SwiftSymbol.Kind.vTableThunk, Utility.CreateLists(derived, base), null);
-            }
-            case 'W': {
-                SwiftSymbol entity = require(pop(kind -> kind.isEntity()));
-                SwiftSymbol conf = popProtocolConformance();
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolWitness, Utility.CreateLists(conf, entity), null);
-            }
-            case 'R':
-            case 'r': {
-                SwiftSymbol genSig = pop(SwiftSymbol.Kind.dependentGenericSignature);
-                SwiftSymbol type2 = require(pop(SwiftSymbol.Kind.type));
-                SwiftSymbol type1 = require(pop(SwiftSymbol.Kind.type));
-                SwiftSymbol.Kind kind = c == 'R' ? SwiftSymbol.Kind.reabstractionThunkHelper : SwiftSymbol.Kind.reabstractionThunk;
-                if (genSig != null) {
-                    return new SwiftSymbol(kind, Utility.CreateLists(genSig, type1, type2), null);
-                } else {
-                    return new SwiftSymbol(kind, Utility.CreateLists(type1, type2), null);
-                }
-            }
-            case 'g':
-                return demangleGenericSpecialization(SwiftSymbol.Kind.genericSpecialization);
-            case 'G':
-                return demangleGenericSpecialization(SwiftSymbol.Kind.genericSpecializationNotReAbstracted);
-            case 'P':
-            case 'p': {
-                SwiftSymbol.Kind kind = c == 'P' ? SwiftSymbol.Kind.genericSpecializationNotReAbstracted : SwiftSymbol.Kind.genericPartialSpecialization;
-                SwiftSymbol spec = demangleSpecAttributes(kind, false);
-                SwiftSymbol param = new SwiftSymbol(kind, require(pop(SwiftSymbol.Kind.type)));
-                spec.children.add(param);
-                return spec;
-            }
-            case 'f':
-                return demangleFunctionSpecialization();
-            case 'K':
-            case 'k': {
-                SwiftSymbol.Kind kind = c == 'K' ? SwiftSymbol.Kind.keyPathGetterThunkHelper : SwiftSymbol.Kind.keyPathSetterThunkHelper;
-                SafeArrayList<SwiftSymbol> types = new SafeArrayList<>();
-                SwiftSymbol node = pop(SwiftSymbol.Kind.type);
-                while (node != null) {
-                    types.add(node);
-                    node = pop(SwiftSymbol.Kind.type);
-                }
-                SwiftSymbol result = null;
-                SwiftSymbol n = pop();
-                if (n != null) {
-                    if (n.kind == SwiftSymbol.Kind.dependentGenericSignature) {
-                        SwiftSymbol decl = require(pop());
-                        result = new SwiftSymbol(kind, Utility.CreateLists(decl, n), null);
-                    } else {
-                        result = new SwiftSymbol(kind, n);
-                    }
-                } else {
-                    scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                }
-                for (SwiftSymbol t : types) {
-                    result.children.add(t);
-                }
-                return result;
+        return dispatch(thunks, scanner.readChar());
+    }
+
+    private SwiftSymbol demangleVTableThunk() throws Exception {
+        SwiftSymbol base = require(pop(kind -> kind.isEntity()));
+        SwiftSymbol derived = require(pop(kind -> kind.isEntity()));
+        return new SwiftSymbol(SwiftSymbol.Kind.vTableThunk, Utility.CreateLists(derived, base), null);
+    }
+
+    private SwiftSymbol demangleProtocolWitness() throws Exception {
+        SwiftSymbol entity = require(pop(kind -> kind.isEntity()));
+        SwiftSymbol conf = popProtocolConformance();
+        return new SwiftSymbol(SwiftSymbol.Kind.protocolWitness, Utility.CreateLists(conf, entity), null);
+    }
+
+    private SwiftSymbol demangleReabstractionThunk(SwiftSymbol.Kind kind) throws Exception {
+        SwiftSymbol genSig = pop(SwiftSymbol.Kind.dependentGenericSignature);
+        SwiftSymbol type2 = require(pop(SwiftSymbol.Kind.type));
+        SwiftSymbol type1 = require(pop(SwiftSymbol.Kind.type));
+        if (genSig != null) {
+            return new SwiftSymbol(kind, Utility.CreateLists(genSig, type1, type2), null);
+        } else {
+            return new SwiftSymbol(kind, Utility.CreateLists(type1, type2), null);
+        }
+    }
+
+    private SwiftSymbol demangleGenericPartialSpecialization(SwiftSymbol.Kind kind) throws Exception {
+        SwiftSymbol spec = demangleSpecAttributes(kind, false);
+        SwiftSymbol param = new SwiftSymbol(kind, require(pop(SwiftSymbol.Kind.type)));
+        spec.children.add(param);
+        return spec;
+    }
+
+    private SwiftSymbol demangleKeyPathAccessorThunk(SwiftSymbol.Kind kind) throws Exception {
+        SafeArrayList<SwiftSymbol> types = new SafeArrayList<>();
+        SwiftSymbol node = pop(SwiftSymbol.Kind.type);
+        while (node != null) {
+            types.add(node);
+            node = pop(SwiftSymbol.Kind.type);
+        }
+        SwiftSymbol result = null;
+        SwiftSymbol n = pop();
+        if (n != null) {
+            if (n.kind == SwiftSymbol.Kind.dependentGenericSignature) {
+                SwiftSymbol decl = require(pop());
+                result = new SwiftSymbol(kind, Utility.CreateLists(decl, n), null);
+            } else {
+                result = new SwiftSymbol(kind, n);
             }
-            case 'l':
-                return new SwiftSymbol(SwiftSymbol.Kind.associatedTypeDescriptor, require(popAssociatedTypeName()));
-            case 'L':
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolRequirementsBaseDescriptor, require(popProtocol()));
-            case 'M':
-                return new SwiftSymbol(SwiftSymbol.Kind.defaultAssociatedTypeMetadataAccessor, require(popAssociatedTypeName()));
-            case 'n': {
-                SwiftSymbol requirement = popProtocol();
-                SwiftSymbol associatedTypePath = popAssociatedTypePath();
-                SwiftSymbol protocolType = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.associatedConformanceDescriptor, Utility.CreateLists(protocolType, associatedTypePath, requirement), null);
-            }
-            case 'N': {
-                SwiftSymbol requirement = popProtocol();
-                SwiftSymbol associatedTypePath = popAssociatedTypePath();
-                SwiftSymbol protocolType = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.defaultAssociatedConformanceAccessor, Utility.CreateLists(protocolType, associatedTypePath, requirement), null);
-            }
-            case 'H':
-            case 'h': {
-                SwiftSymbol.Kind kind = c == 'H' ? SwiftSymbol.Kind.keyPathEqualsThunkHelper : SwiftSymbol.Kind.keyPathHashThunkHelper;
-                SafeArrayList<SwiftSymbol> types = new SafeArrayList<>();
-                SwiftSymbol node = require(pop());
-                SwiftSymbol genericSig = null;
-                if (node.kind == SwiftSymbol.Kind.dependentGenericSignature) {
-                    genericSig = node;
-                } else if (node.kind == SwiftSymbol.Kind.type) {
-                    types.add(node);
-                } else {
-                    scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                }
+        } else {
+            scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
+        }
+        for (SwiftSymbol t : types) {
+            result.children.add(t);
+        }
+        return result;
+    }
 
-                while (true) {
-                    SwiftSymbol n = pop();
-                    if (n != null) {
-                        require(n.kind == SwiftSymbol.Kind.type);
-                        types.add(n);
-                    }else  {
-                        break;
-                    }
-                }
+    private SwiftSymbol demangleAssociatedConformance(SwiftSymbol.Kind kind) throws Exception {
+        SwiftSymbol requirement = popProtocol();
+        SwiftSymbol associatedTypePath = popAssociatedTypePath();
+        SwiftSymbol protocolType = require(pop(SwiftSymbol.Kind.type));
+        return new SwiftSymbol(kind, Utility.CreateLists(protocolType, associatedTypePath, requirement), null);
+    }
 
-                SwiftSymbol result = new SwiftSymbol(kind, (SwiftSymbol) null);
-                for (SwiftSymbol t : types) {
-                    result.children.add(t);
-                }
-                if (genericSig != null) {
-                    result.children.add(genericSig);
-                }
-                return result;
+    private SwiftSymbol demangleKeyPathIndexThunk(SwiftSymbol.Kind kind) throws Exception {
+        SafeArrayList<SwiftSymbol> types = new SafeArrayList<>();
+        SwiftSymbol node = require(pop());
+        SwiftSymbol genericSig = null;
+        if (node.kind == SwiftSymbol.Kind.dependentGenericSignature) {
+            genericSig = node;
+        } else if (node.kind == SwiftSymbol.Kind.type) {
+            types.add(node);
+        } else {
+            scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
+        }
+
+        while (true) {
+            SwiftSymbol n = pop();
+            if (n != null) {
+                require(n.kind == SwiftSymbol.Kind.type);
+                types.add(n);
+            }else  {
+                break;
             }
-            case 'v':
-                return new SwiftSymbol(SwiftSymbol.Kind.outlinedVariable, null, new Contents(demangleIndex()));
-            case 'e':
-                return new SwiftSymbol(SwiftSymbol.Kind.outlinedBridgedMethod, null, new Contents(demangleBridgedMethodParams()));
-            default:
-                scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                return null;
         }
+
+        SwiftSymbol result = new SwiftSymbol(kind, (SwiftSymbol) null);
+        for (SwiftSymbol t : types) {
+            result.children.add(t);
+        }
+        if (genericSig != null) {
+            result.children.add(genericSig);
+        }
+        return result;
     }
 
     private String demangleBridgedMethodParams() throws Exception {
@@ -1696,183 +1763,107 @@ public class Demangler {
     }
 
     private SwiftSymbol demangleWitness() throws Exception {
+        return dispatch(witnesses, scanner.readChar());
+    }
+
+    private SwiftSymbol demangleFieldOffset() throws Exception {
+        int directness = 0;
         switch (scanner.readChar()) {
-            case 'C':
-                return new SwiftSymbol(SwiftSymbol.Kind.enumCase, require(pop(kind -> kind.isEntity())));
-            case 'V':
-                return new SwiftSymbol(SwiftSymbol.Kind.valueWitnessTable, require(pop(SwiftSymbol.Kind.type)));
-            case 'v': {
-                int directness = 0;
-                switch (scanner.readChar()) {
-                    case 'd':
-                        directness = SwiftSymbol.Directness.direct.nCode;
-                        break;
-                    case 'i':
-                        directness = SwiftSymbol.Directness.indirect.nCode;
-                        break;
-                    default:
-                        scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                }
-                return new SwiftSymbol(SwiftSymbol.Kind.fieldOffset, Utility.CreateLists(new SwiftSymbol(SwiftSymbol.Kind.directness, null, new Contents(directness)), require(pop(kind -> kind.isEntity()))), null);
-            }
-            case 'P':
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTable, popProtocolConformance());
-            case 'p':
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTablePattern, popProtocolConformance());
-            case 'G':
-                return new SwiftSymbol(SwiftSymbol.Kind.genericProtocolWitnessTable, popProtocolConformance());
-            case 'I':
-                return new SwiftSymbol(SwiftSymbol.Kind.genericProtocolWitnessTableInstantiationFunction, popProtocolConformance());
-            case 'r':
-                return new SwiftSymbol(SwiftSymbol.Kind.resilientProtocolWitnessTable, popProtocolConformance());
-            case 'l': {
-                SwiftSymbol conf = popProtocolConformance();
-                SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.lazyProtocolWitnessTableAccessor, Utility.CreateLists(type, conf), null);
-            }
-            case 'L': {
-                SwiftSymbol conf = popProtocolConformance();
-                SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.lazyProtocolWitnessTableCacheVariable, Utility.CreateLists(type, conf), null);
-            }
-            case 'a':
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolWitnessTableAccessor, popProtocolConformance());
-            case 't': {
-                SwiftSymbol name = require(pop(kind -> kind.isDeclName()));
-                SwiftSymbol conf = popProtocolConformance();
-                return new SwiftSymbol(SwiftSymbol.Kind.associatedTypeMetadataAccessor, Utility.CreateLists(conf, name), null);
-            }
-            case 'T': {
-                SwiftSymbol protoType = require(pop(SwiftSymbol.Kind.type));
-                SwiftSymbol assocTypePath = new SwiftSymbol(SwiftSymbol.Kind.assocTypePath, (SwiftSymbol) null);
-                boolean firstElem = false;
-                do {
-                    firstElem = pop(SwiftSymbol.Kind.firstElementMarker) != null;
-                    SwiftSymbol assocType = require(pop(kind -> kind.isDeclName()));
-                    assocTypePath.children.add(0, assocType);
-                } while (!firstElem);
-                return new SwiftSymbol(SwiftSymbol.Kind.associatedTypeWitnessTableAccessor, Utility.CreateLists(popProtocolConformance(), assocTypePath, protoType), null);
-            }
-            case 'O': {
-                SwiftSymbol sig = pop(SwiftSymbol.Kind.dependentGenericSignature);
-                SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
-                SafeArrayList children = Utility.CreateLists(sig, type);
-                switch (scanner.readChar()) {
-                    case 'y':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedCopy, children, null);
-                    case 'e':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedConsume, children, null);
-                    case 'r':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedRetain, children, null);
-                    case 's':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedRelease, children, null);
-                    case 'b':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedInitializeWithTake, children, null);
-                    case 'c':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedInitializeWithCopy, children, null);
-                    case 'd':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedAssignWithTake, children, null);
-                    case 'f':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedAssignWithCopy, children, null);
-                    case 'h':
-                        return new SwiftSymbol(SwiftSymbol.Kind.outlinedDestroy, children, null);
-                    default:
-                        scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                        return null;
-                }
-            }
+            case 'd':
+                directness = SwiftSymbol.Directness.direct.nCode;
+                break;
+            case 'i':
+                directness = SwiftSymbol.Directness.indirect.nCode;
+                break;
+            default:
+                scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
         }
-        scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-        return null;
+        return new SwiftSymbol(SwiftSymbol.Kind.fieldOffset, Utility.CreateLists(new SwiftSymbol(SwiftSymbol.Kind.directness, null, new Contents(directness)), require(pop(kind -> kind.isEntity()))), null);
+    }
+
+    private SwiftSymbol demangleLazyProtocolWitnessTable(SwiftSymbol.Kind kind) throws Exception {
+        SwiftSymbol conf = popProtocolConformance();
+        SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
+        return new SwiftSymbol(kind, Utility.CreateLists(type, conf), null);
+    }
+
+    private SwiftSymbol demangleAssociatedTypeMetadataAccessor() throws Exception {
+        SwiftSymbol name = require(pop(kind -> kind.isDeclName()));
+        SwiftSymbol conf = popProtocolConformance();
+        return new SwiftSymbol(SwiftSymbol.Kind.associatedTypeMetadataAccessor, Utility.CreateLists(conf, name), null);
+    }
+
+    private SwiftSymbol demangleAssociatedTypeWitnessTableAccessor() throws Exception {
+        SwiftSymbol protoType = require(pop(SwiftSymbol.Kind.type));
+        SwiftSymbol assocTypePath = new SwiftSymbol(SwiftSymbol.Kind.assocTypePath, (SwiftSymbol) null);
+        boolean firstElem = false;
+        do {
+            firstElem = pop(SwiftSymbol.Kind.firstElementMarker) != null;
+            SwiftSymbol assocType = require(pop(kind -> kind.isDeclName()));
+            assocTypePath.children.add(0, assocType);
+        } while (!firstElem);
+        return new SwiftSymbol(SwiftSymbol.Kind.associatedTypeWitnessTableAccessor, Utility.CreateLists(popProtocolConformance(), assocTypePath, protoType), null);
+    }
+
+    private SwiftSymbol demangleOutlinedOperation() throws Exception {
+        SwiftSymbol sig = pop(SwiftSymbol.Kind.dependentGenericSignature);
+        SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
+        SafeArrayList children = Utility.CreateLists(sig, type);
+        char c = scanner.readChar();
+        SwiftSymbol.Kind kind = c < outlinedOperations.length ? outlinedOperations[c] : null;
+        if (kind == null) {
+            scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
+        }
+        return new SwiftSymbol(kind, children, null);
     }
 
     private SwiftSymbol demangleSpecialType() throws Exception {
-        char specialChar = scanner.readChar();
-        switch (specialChar) {
-            case 'E':
-                return popFunctionType(SwiftSymbol.Kind.noEscapeFunctionType);
-            case 'A':
-                return popFunctionType(SwiftSymbol.Kind.escapingAutoClosureType);
-            case 'f':
-                return popFunctionType(SwiftSymbol.Kind.thinFunctionType);
-            case 'K':
-                return popFunctionType(SwiftSymbol.Kind.autoClosureType);
-            case 'U':
-                return popFunctionType(SwiftSymbol.Kind.uncurriedFunctionType);
-            case 'B':
-                return popFunctionType(SwiftSymbol.Kind.objCBlock);
-            case 'C':
-                return popFunctionType(SwiftSymbol.Kind.cFunctionPointer);
-            case 'o':
-                return new SwiftSymbol(SwiftSymbol.Kind.unowned, require(pop(SwiftSymbol.Kind.type)));
-            case 'u':
-                return new SwiftSymbol(SwiftSymbol.Kind.unmanaged, require(pop(SwiftSymbol.Kind.type)));
-            case 'w':
-                return new SwiftSymbol(SwiftSymbol.Kind.weak, require(pop(SwiftSymbol.Kind.type)));
-            case 'b':
-                return new SwiftSymbol(SwiftSymbol.Kind.silBoxType, require(pop(SwiftSymbol.Kind.type)));
-            case 'D':
-                return new SwiftSymbol(SwiftSymbol.Kind.dynamicSelf, require(pop(SwiftSymbol.Kind.type)));
-            case 'M': {
-                SwiftSymbol mtr = demangleMetatypeRepresentation();
-                SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.metatype, Utility.CreateLists(mtr, type));
-            }
-            case 'm': {
-                SwiftSymbol mtr = demangleMetatypeRepresentation();
-                SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
-                return new SwiftSymbol(SwiftSymbol.Kind.existentialMetatype, Utility.CreateLists(mtr, type));
-            }
-            case 'p':
-                return new SwiftSymbol(SwiftSymbol.Kind.existentialMetatype, require(pop(SwiftSymbol.Kind.type)));
-            case 'c': {
-                SwiftSymbol superclass = require(pop(SwiftSymbol.Kind.type));
-                SwiftSymbol protocols = demangleProtocolList();
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolListWithClass, Utility.CreateLists(protocols, superclass));
-            }
-            case 'l':
-                return new SwiftSymbol(SwiftSymbol.Kind.protocolListWithAnyObject, demangleProtocolList());
-            case 'X':
-            case 'x': {
-                SwiftSymbol X_ss = null;
-                SwiftSymbol x_ss = null;
-                if (specialChar == 'X') {
-                    X_ss = require(pop(SwiftSymbol.Kind.dependentGenericSignature));
-                    x_ss = popTypeList();
-                }
-                SwiftSymbol fieldTypes = popTypeList();
-                SwiftSymbol layout = new SwiftSymbol(SwiftSymbol.Kind.silBoxLayout, (SwiftSymbol) null);
-                for (SwiftSymbol fieldType : fieldTypes.children) {
-                    require(fieldType.kind == SwiftSymbol.Kind.type);
-                    SwiftSymbol first = fieldType.children.get(0);
-                    if (first != null && first.kind == SwiftSymbol.Kind.inOut) {
-                        layout.children.add(new SwiftSymbol(SwiftSymbol.Kind.silBoxMutableField, new SwiftSymbol(SwiftSymbol.Kind.type, require(first.children.get(0)))));
-                    } else {
-                        layout.children.add(new SwiftSymbol(SwiftSymbol.Kind.silBoxImmutableField, fieldType));
-                    }
-                }
-                SwiftSymbol boxType = new SwiftSymbol(SwiftSymbol.Kind.silBoxTypeWithLayout, layout);
-                if (X_ss != null && x_ss != null) {
-                    boxType.children.add(X_ss);
-                    boxType.children.add(x_ss);
-                }
-                return new SwiftSymbol(SwiftSymbol.Kind.type, boxType);
+        return dispatch(specialTypes, scanner.readChar());
+    }
 
+    private SwiftSymbol demangleMetatypeWithRepresentation(SwiftSymbol.Kind kind) throws Exception {
+        SwiftSymbol mtr = demangleMetatypeRepresentation();
+        SwiftSymbol type = require(pop(SwiftSymbol.Kind.type));
+        return new SwiftSymbol(kind, Utility.CreateLists(mtr, type));
+    }
+
+    private SwiftSymbol demangleProtocolListWithClass() throws Exception {
+        SwiftSymbol superclass = require(pop(SwiftSymbol.Kind.type));
+        SwiftSymbol protocols = demangleProtocolList();
+        return new SwiftSymbol(SwiftSymbol.Kind.protocolListWithClass, Utility.CreateLists(protocols, superclass));
+    }
+
+    private SwiftSymbol demangleSilBoxTypeWithLayout(char specialChar) throws Exception {
+        SwiftSymbol X_ss = null;
+        SwiftSymbol x_ss = null;
+        if (specialChar == 'X') {
+            X_ss = require(pop(SwiftSymbol.Kind.dependentGenericSignature));
+            x_ss = popTypeList();
+        }
+        SwiftSymbol fieldTypes = popTypeList();
+        SwiftSymbol layout = new SwiftSymbol(SwiftSymbol.Kind.silBoxLayout, (SwiftSymbol) null);
+        for (SwiftSymbol fieldType : fieldTypes.children) {
+            require(fieldType.kind == SwiftSymbol.Kind.type);
+            SwiftSymbol first = fieldType.children.get(0);
+            if (first != null && first.kind == SwiftSymbol.Kind.inOut) {
+                layout.children.add(new SwiftSymbol(SwiftSymbol.Kind.silBoxMutableField, new SwiftSymbol(SwiftSymbol.Kind.type, require(first.children.get(0)))));
+            } else {
+                layout.children.add(new SwiftSymbol(SwiftSymbol.Kind.silBoxImmutableField, fieldType));
             }
-            case 'Y':
-                return demangleAnyGenericType(SwiftSymbol.Kind.otherNominalType);
-            case 'Z': {
-                SwiftSymbol types = popTypeList();
-                SwiftSymbol name = require(pop(SwiftSymbol.Kind.identifier));
-                SwiftSymbol parent = popContext();
-                return new SwiftSymbol(SwiftSymbol.Kind.anonymousContext, Utility.CreateLists(name, parent, types), null);
-            }
-            case 'e':
-                return new SwiftSymbol(SwiftSymbol.Kind.type, new SwiftSymbol(SwiftSymbol.Kind.errorType, (SwiftSymbol) null));
-            default:
-                scanner.throwException(SymbolScanner.MangledExceptionType.matchFailed);
-                return null;
         }
+        SwiftSymbol boxType = new SwiftSymbol(SwiftSymbol.Kind.silBoxTypeWithLayout, layout);
+        if (X_ss != null && x_ss != null) {
+            boxType.children.add(X_ss);
+            boxType.children.add(x_ss);
+        }
+        return new SwiftSymbol(SwiftSymbol.Kind.type, boxType);
+    }
+
+    private SwiftSymbol demangleAnonymousContext() throws Exception {
+        SwiftSymbol types = popTypeList();
+        SwiftSymbol name = require(pop(SwiftSymbol.Kind.identifier));
+        SwiftSymbol parent = popContext();
+        return new SwiftSymbol(SwiftSymbol.Kind.anonymousContext, Utility.CreateLists(name, parent, types), null);
     }
 
     private SwiftSymbol demangleMetatypeRepresentation() throws Exception {
@@ -2278,8 +2269,9 @@ public class Demangler {
     }
 
     private SwiftSymbol demangleValueWitness() throws Exception {
-        String code = scanner.readChars(2);
-        SwiftSymbol.ValueWitnessKind kind = require(SwiftSymbol.ValueWitnessKind.WitnessKindWithString(code));
+        char first = scanner.readChar();
+        char second = scanner.readChar();
+        SwiftSymbol.ValueWitnessKind kind = require(SwiftSymbol.ValueWitnessKind.WitnessKindWithChars(first, second));
         return new SwiftSymbol(SwiftSymbol.Kind.valueWitness, Utility.CreateLists(require(pop(SwiftSymbol.Kind.type))), new Contents(kind.nCode));
     }
 
@@ -2289,7 +2281,7 @@ public class Demangler {
             char c = scanner.readChar();
             if (Character.isLowerCase(c)) {
                 SwiftSymbol ss = pushMultiSubstitutions(repeatCount, (c - 'a'));
-                nameStack.add(ss);
+                nameStack.push(ss);
                 repeatCount = 0;
                 continue;
             } else if (Character.isUpperCase(c)) {
@@ -2312,7 +2304,7 @@ public class Demangler {
         if (scanner.conditional("C")) {
             SwiftSymbol module = null;
             if (scanner.conditional("s")) {
-                module = new SwiftSymbol(SwiftSymbol.Kind.module, new SafeArrayList<>(), new Contents(stdlibName));
+                module = SwiftSymbol.sharedModule(stdlibName);
             } else {
                 module = demangleIdentifier().changeKind(SwiftSymbol.Kind.module, new SafeArrayList());
             }
@@ -2320,7 +2312,7 @@ public class Demangler {
         } else if (scanner.conditional("P")) {
             SwiftSymbol module = null;
             if (scanner.conditional("s")) {
-                module = new SwiftSymbol(SwiftSymbol.Kind.module, null, new Contents(stdlibName));
+                module = SwiftSymbol.sharedModule(stdlibName);
             } else {
                 module = demangleIdentifier().changeKind(SwiftSymbol.Kind.module, null);
             }
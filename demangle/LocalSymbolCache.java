@@ -0,0 +1,103 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+/*
+ * 每个线程一个的小缓存, 放在共享的SymbolCache前面. 直接映射, 按hash取槽位, 再比较字符确认.
+ * 只被所属线程访问, 命中时基本不读写共享内存: 只检查共享缓存是否换过, 并且每touchInterval次命中
+ * 抽样一次去设置共享条目的referenced标记, 让共享缓存的淘汰能看到这些访问.
+ * 共享缓存被替换或clear后, 下一次访问时整体失效.
+ */
+public final class LocalSymbolCache {
+
+    private static final int size = 256;
+    private static final int mask = size - 1;
+    // 每多少次命中把一次命中同步到共享缓存
+    private static final int touchInterval = 16;
+
+    private final String[] keys = new String[size];
+    private final int[] hashes = new int[size];
+    private final int[] options = new int[size];
+    private final String[] values = new String[size];
+
+    // 缓存内容对应的共享缓存和它的epoch
+    private SymbolCache owner;
+    private int epoch;
+
+    private long hits;
+    private long misses;
+
+    LocalSymbolCache() {
+    }
+
+    /*
+     * 查找text[start, end), 不生成子串. 没有时返回null.
+     */
+    String get(SymbolCache shared, String text, int start, int end, int hash, int options) {
+        validate(shared);
+        int slot = slot(hash, options);
+        String key = keys[slot];
+        if (key != null && hashes[slot] == hash && this.options[slot] == options
+                && key.length() == end - start && text.regionMatches(start, key, 0, end - start)) {
+            if (++hits % touchInterval == 0) shared.touch(key, options);
+            return values[slot];
+        }
+        misses++;
+        return null;
+    }
+
+    void put(String key, int hash, int options, String value) {
+        int slot = slot(hash, options);
+        keys[slot] = key;
+        hashes[slot] = hash;
+        this.options[slot] = options;
+        values[slot] = value;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /*
+     * 与String.hashCode()相同的结果, 直接在原字符串的区间上计算.
+     */
+    static int hash(String text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h;
+    }
+
+    private void validate(SymbolCache shared) {
+        int current = shared.epoch();
+        if (owner == shared && epoch == current) return;
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        owner = shared;
+        epoch = current;
+    }
+
+    private static int slot(int hash, int options) {
+        int h = (hash + options) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * 文件到文件的日志改写: 每行做parseMangledSwiftSymbolToString, 原有的换行符原样保留.
+ * 行只按'\n'切分, 行尾的'\r'不算内容("\r\n"); 与BufferedReader.readLine不同, 单独的'\r'不结束一行.
+ *
+ * 输入按窗口mmap, 在字节上找行边界和候选行(恰好一个'!', 后面有mangling前缀), 只有候选行才解码成String改写.
+ * '!', 空白和前缀都是ASCII, 在UTF-8里不会出现在多字节字符中, 所以按字节判断和按char判断结果一样.
+ * 没有改变的区域不经过Java堆: 大段用transferTo直接复制, 改写行之间的小段从映射区拷贝到direct buffer里一起写出.
+ *
+ * rewriteParallel把输入切成按行对齐的chunk在ForkJoinPool上并行改写, 写出仍按原顺序.
+ */
+public final class LogFileRewriter {
+
+    /*
+     * 收到改写结果: 输入中[start, end)替换为bytes, 其余字节原样保留. start按顺序递增.
+     */
+    interface Replacements {
+        void replace(long start, long end, byte[] bytes) throws IOException;
+    }
+
+    static final long defaultWindowSize = 64L << 20;
+    static final int defaultBufferSize = 1 << 20;
+    static final int defaultChunkSize = 8 << 20;
+
+    // 短于此长度的未改变区域拷贝到输出buffer, 更长的用transferTo
+    private static final int transferThreshold = 64 << 10;
+
+    private LogFileRewriter() {
+    }
+
+    /*
+     * 改写input写到output(覆盖), 返回改写了的行数.
+     */
+    public static long rewrite(Path input, Path output) throws IOException {
+        return rewrite(input, output, defaultWindowSize, defaultBufferSize);
+    }
+
+    static long rewrite(Path input, Path output, long windowSize, int bufferSize) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output sink = new Output(in, out, bufferSize);
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(windowSize, size - position);
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                sink.window(window, position);
+                int consumed = rewriteLines(window, 0, (int) length, position + length == size, position, sink);
+                if (consumed == 0) {
+                    /* 一行比窗口还长: 找到行尾, 单独映射这一行 */
+                    long end = chunkEnd(in, position, (int) length, size);
+                    window = in.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+                    sink.window(window, position);
+                    consumed = rewriteLines(window, 0, (int) (end - position), true, position, sink);
+                }
+                position += consumed;
+            }
+            sink.finish(size);
+            return sink.rewritten;
+        }
+    }
+
+    /*
+     * 与rewrite结果相同, chunk在pool上并行改写. 同时最多有2 * parallelism个chunk被映射或等待写出,
+     * 所以占用的内存与chunk大小和并行度成正比, 与文件大小无关.
+     */
+    public static long rewriteParallel(Path input, Path output) throws IOException {
+        return rewriteParallel(input, output, ForkJoinPool.commonPool());
+    }
+
+    public static long rewriteParallel(Path input, Path output, ForkJoinPool pool) throws IOException {
+        return rewriteParallel(input, output, pool, defaultChunkSize, defaultBufferSize);
+    }
+
+    static long rewriteParallel(Path input, Path output, ForkJoinPool pool, int chunkSize, int bufferSize) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output sink = new Output(in, out, bufferSize);
+            long size = in.size();
+            int maxPending = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+            long position = 0;
+            try {
+                while (position < size || !pending.isEmpty()) {
+                    while (position < size && pending.size() < maxPending) {
+                        long end = chunkEnd(in, position, chunkSize, size);
+                        Chunk chunk = new Chunk(in.map(FileChannel.MapMode.READ_ONLY, position, end - position), position);
+                        pending.addLast(pool.submit(chunk::rewrite, chunk));
+                        position = end;
+                    }
+                    Chunk chunk = pending.pollFirst().join();
+                    chunk.replay(sink);
+                }
+            } catch (RuntimeException e) {
+                for (ForkJoinTask<Chunk> task : pending) task.cancel(false);
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+            sink.finish(size);
+            return sink.rewritten;
+        }
+    }
+
+    /*
+     * 从start + chunkSize往后找到第一个换行符, chunk在它之后结束, 这样每个chunk都由完整的行组成.
+     */
+    private static long chunkEnd(FileChannel in, long start, int chunkSize, long size) throws IOException {
+        long position = start + chunkSize;
+        if (position >= size) return size;
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        while (position < size) {
+            probe.clear();
+            int read = in.read(probe, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    long end = position + i + 1;
+                    if (end - start > Integer.MAX_VALUE) throw new IOException("line too long at " + start);
+                    return end;
+                }
+            }
+            position += read;
+        }
+        if (size - start > Integer.MAX_VALUE) throw new IOException("line too long at " + start);
+        return size;
+    }
+
+    /*
+     * 一个chunk的改写结果. rewrite在pool的一个worker上完整执行, parseMangledSwiftSymbolToString用的Demangler和
+     * 输出buffer都是这个线程独占的, chunk之间不共享解析状态.
+     */
+    private static final class Chunk implements Replacements {
+        final MappedByteBuffer buffer;
+        final long base;
+        long[] ranges = new long[32];
+        final ArrayList<byte[]> replacements = new ArrayList<>();
+
+        Chunk(MappedByteBuffer buffer, long base) {
+            this.buffer = buffer;
+            this.base = base;
+        }
+
+        void rewrite() {
+            try {
+                rewriteLines(buffer, 0, buffer.capacity(), true, base, this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void replace(long start, long end, byte[] bytes) {
+            int n = replacements.size();
+            if (ranges.length < 2 * n + 2) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[2 * n] = start;
+            ranges[2 * n + 1] = end;
+            replacements.add(bytes);
+        }
+
+        void replay(Output sink) throws IOException {
+            sink.window(buffer, base);
+            for (int i = 0; i < replacements.size(); i++) {
+                sink.replace(ranges[2 * i], ranges[2 * i + 1], replacements.get(i));
+            }
+        }
+    }
+
+    /*
+     * 改写buffer中[from, to)里的完整行, 最后一行没有换行符时只有last为true才处理.
+     * base是buffer位置0在文件里的偏移. 返回处理到的位置(相对from的字节数).
+     */
+    static int rewriteLines(ByteBuffer buffer, int from, int to, boolean last, long base, Replacements sink) throws IOException {
+        byte[] scratch = null;
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buffer.get(lineEnd) != '\n') lineEnd++;
+            if (lineEnd == to && !last) break;
+            int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (isCandidate(buffer, lineStart, contentEnd)) {
+                int length = contentEnd - lineStart;
+                if (scratch == null || scratch.length < length) scratch = new byte[Math.max(length, 256)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(lineStart);
+                view.get(scratch, 0, length);
+                String line = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                String rewritten = MMSwiftDemangle.parseMangledSwiftSymbolToString(line);
+                if (rewritten != line) {
+                    sink.replace(base + lineStart, base + contentEnd, rewritten.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            lineStart = lineEnd < to ? lineEnd + 1 : to;
+        }
+        return lineStart - from;
+    }
+
+    /*
+     * 与parseMangledSwiftSymbolToString的前置判断一致: 恰好一个'!', 之后出现mangling前缀.
+     * 前缀不要求在token开头, 只是过滤, 最终由parseMangledSwiftSymbolToString决定.
+     */
+    private static boolean isCandidate(ByteBuffer buffer, int start, int end) {
+        int bang = -1;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '!') {
+                if (bang >= 0) return false;
+                bang = i;
+            }
+        }
+        if (bang < 0) return false;
+        for (int i = bang + 1; i + 1 < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '$') {
+                byte next = buffer.get(i + 1);
+                if (next == 's' || next == 'S') return true;
+            } else if (b == '_' && buffer.get(i + 1) == 'T' && i + 2 < end && buffer.get(i + 2) == '0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * 按顺序写出: 未改变的区域从输入复制, 改写的行写入direct buffer.
+     */
+    private static final class Output implements Replacements {
+        private final FileChannel in;
+        private final FileChannel out;
+        private final ByteBuffer buffer;
+        private ByteBuffer window;
+        private long windowBase;
+        private long copied;
+        long rewritten;
+
+        Output(FileChannel in, FileChannel out, int bufferSize) {
+            this.in = in;
+            this.out = out;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        void window(ByteBuffer window, long base) {
+            this.window = window;
+            this.windowBase = base;
+        }
+
+        @Override
+        public void replace(long start, long end, byte[] bytes) throws IOException {
+            copyUntil(start);
+            write(bytes);
+            copied = end;
+            rewritten++;
+        }
+
+        void finish(long size) throws IOException {
+            copyUntil(size);
+            flush();
+        }
+
+        private void copyUntil(long position) throws IOException {
+            long length = position - copied;
+            if (length <= 0) return;
+            if (length < transferThreshold && copied >= windowBase && length <= buffer.remaining()) {
+                ByteBuffer region = window.duplicate();
+                region.limit((int) (position - windowBase));
+                region.position((int) (copied - windowBase));
+                buffer.put(region);
+            } else {
+                flush();
+                long done = 0;
+                while (done < length) {
+                    done += in.transferTo(copied + done, length - done, out);
+                }
+            }
+            copied = position;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.remaining()) {
+                flush();
+                if (bytes.length > buffer.capacity()) {
+                    ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                    while (wrapped.hasRemaining()) out.write(wrapped);
+                    return;
+                }
+            }
+            buffer.put(bytes);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+            buffer.clear();
+        }
+    }
+}
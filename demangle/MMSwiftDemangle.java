@@ -4,14 +4,596 @@
 
 package demangle;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.ArrayList;
 
 public class MMSwiftDemangle {
 
+    // 每个线程复用一个Demangler, 只有结果树需要分配.
+    private static final ThreadLocal<Demangler> demanglers = ThreadLocal.withInitial(Demangler::new);
+
+    /*
+     * 借出当前线程的Demangler. 已被借出时(重入)返回新的实例.
+     */
+    private static Demangler acquire() {
+        Demangler demangler = demanglers.get();
+        if (demangler.busy) return new Demangler();
+        demangler.busy = true;
+        return demangler;
+    }
+
+    private static void release(Demangler demangler) {
+        demangler.clear();
+        demangler.busy = false;
+    }
+
     public static SwiftSymbol parsedMangledSwiftSymbol(String mangled) throws Exception {
         validateManglingPrefix(mangled);
-        Demangler demangler = new Demangler(mangled);
-        return demangler.demangleSymbol();
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(mangled);
+            return demangler.demangleSymbol();
+        } finally {
+            release(demangler);
+        }
+    }
+
+    /*
+     * Demangle the UTF-8 bytes in [offset, offset + length) without decoding them to a String first.
+     */
+    public static SwiftSymbol parsedMangledSwiftSymbol(byte[] mangled, int offset, int length) throws Exception {
+        validateManglingPrefix(mangled, offset, length);
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(mangled, offset, length);
+            return demangler.demangleSymbol();
+        } finally {
+            release(demangler);
+        }
+    }
+
+    /*
+     * Demangle the bytes between position and limit of a heap or direct buffer.
+     * The buffer's position is left unchanged.
+     */
+    public static SwiftSymbol parsedMangledSwiftSymbol(ByteBuffer mangled) throws Exception {
+        validateManglingPrefix(mangled);
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(mangled);
+            return demangler.demangleSymbol();
+        } finally {
+            release(demangler);
+        }
+    }
+
+    /*
+     * 不抛异常的版本, 用于大量扫描可能不是符号的token.
+     */
+    public static DemangleResult tryParseMangledSwiftSymbol(String mangled) {
+        if (!hasManglingPrefix(mangled)) return DemangleResult.notMangled();
+        return tryParseMangledSwiftSymbol(mangled, 0, mangled.length());
+    }
+
+    public static DemangleResult tryParseMangledSwiftSymbol(byte[] mangled, int offset, int length) {
+        if (!hasManglingPrefix(mangled, offset, length)) return DemangleResult.notMangled();
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(mangled, offset, length);
+            return demangler.tryDemangleSymbol();
+        } finally {
+            release(demangler);
+        }
+    }
+
+    public static DemangleResult tryParseMangledSwiftSymbol(ByteBuffer mangled) {
+        if (!hasManglingPrefix(mangled)) return DemangleResult.notMangled();
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(mangled);
+            return demangler.tryDemangleSymbol();
+        } finally {
+            release(demangler);
+        }
+    }
+
+    /*
+     * 批量demangle, 整批共用一个Demangler和一个printer, 输出连续写进一个char数组, 每个条目不生成String.
+     */
+    public static DemangleBatch demangleBatch(String[] symbols, @SymbolPrinter.SymbolPrintOptions int options) {
+        return sequentialBatch(stringInput(symbols), symbols.length, options);
+    }
+
+    /*
+     * 输入也是列式的: 第i个符号为input[inputOffsets[i], inputOffsets[i + 1]).
+     */
+    public static DemangleBatch demangleBatch(char[] input, int[] inputOffsets, int count, @SymbolPrinter.SymbolPrintOptions int options) {
+        return sequentialBatch(charInput(input, inputOffsets, count), count, options);
+    }
+
+    /*
+     * 并行的批量demangle, 在ForkJoinPool.commonPool()上执行. 结果与demangleBatch相同, 按输入顺序.
+     */
+    public static DemangleBatch demangleBatchParallel(String[] symbols, @SymbolPrinter.SymbolPrintOptions int options) {
+        return demangleBatchParallel(symbols, options, ForkJoinPool.commonPool());
+    }
+
+    /*
+     * 使用parallelism个线程的临时pool, 返回前关闭.
+     */
+    public static DemangleBatch demangleBatchParallel(String[] symbols, @SymbolPrinter.SymbolPrintOptions int options, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return demangleBatchParallel(symbols, options, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static DemangleBatch demangleBatchParallel(String[] symbols, @SymbolPrinter.SymbolPrintOptions int options, ForkJoinPool pool) {
+        return parallelBatch(stringInput(symbols), symbols.length, options, pool);
+    }
+
+    public static DemangleBatch demangleBatchParallel(char[] input, int[] inputOffsets, int count, @SymbolPrinter.SymbolPrintOptions int options, ForkJoinPool pool) {
+        return parallelBatch(charInput(input, inputOffsets, count), count, options, pool);
+    }
+
+    private interface BatchInput {
+        /* 把第i个符号交给demangler, 前缀不对时返回false */
+        boolean load(Demangler demangler, int i);
+    }
+
+    private static BatchInput stringInput(String[] symbols) {
+        return (demangler, i) -> {
+            String symbol = symbols[i];
+            if (symbol == null || !hasManglingPrefix(symbol)) return false;
+            demangler.reset(symbol);
+            return true;
+        };
+    }
+
+    private static BatchInput charInput(char[] input, int[] inputOffsets, int count) {
+        if (count < 0 || inputOffsets.length < count + 1) {
+            throw new IllegalArgumentException("count " + count + ", offsets " + inputOffsets.length);
+        }
+        return (demangler, i) -> {
+            int start = inputOffsets[i];
+            int length = inputOffsets[i + 1] - start;
+            if (!hasManglingPrefix(input, start, length)) return false;
+            demangler.reset(input, start, length);
+            return true;
+        };
+    }
+
+    private static DemangleBatch sequentialBatch(BatchInput input, int count, int options) {
+        int[] offsets = new int[count + 1];
+        byte[] status = new byte[count];
+        StringBuilder out = new StringBuilder(count * 32);
+        demangleRange(input, 0, count, options, out, offsets, status);
+        offsets[count] = out.length();
+        return finishBatch(count, out, offsets, status);
+    }
+
+    /*
+     * 输入按块切分, 每块由一个worker用它自己的Demangler和printer(线程本地)处理,
+     * 块内的offsets相对于块自己的输出, 合并时按块顺序拼接并加上偏移.
+     */
+    private static DemangleBatch parallelBatch(BatchInput input, int count, int options, ForkJoinPool pool) {
+        int[] offsets = new int[count + 1];
+        byte[] status = new byte[count];
+        int chunkSize = Math.max(256, (count + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        StringBuilder[] outputs = new StringBuilder[chunks];
+        pool.invoke(new BatchTask(input, count, options, chunkSize, 0, chunks, outputs, offsets, status));
+
+        int total = 0;
+        for (StringBuilder output : outputs) total += output.length();
+        char[] chars = new char[total];
+        int base = 0;
+        for (int k = 0; k < chunks; k++) {
+            StringBuilder output = outputs[k];
+            output.getChars(0, output.length(), chars, base);
+            int end = Math.min(count, (k + 1) * chunkSize);
+            for (int i = k * chunkSize; i < end; i++) offsets[i] += base;
+            base += output.length();
+        }
+        offsets[count] = total;
+        return new DemangleBatch(count, chars, offsets, status);
+    }
+
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchInput input;
+        private final int count;
+        private final int options;
+        private final int chunkSize;
+        private final int from;
+        private final int to;
+        private final StringBuilder[] outputs;
+        private final int[] offsets;
+        private final byte[] status;
+
+        BatchTask(BatchInput input, int count, int options, int chunkSize, int from, int to, StringBuilder[] outputs, int[] offsets, byte[] status) {
+            this.input = input;
+            this.count = count;
+            this.options = options;
+            this.chunkSize = chunkSize;
+            this.from = from;
+            this.to = to;
+            this.outputs = outputs;
+            this.offsets = offsets;
+            this.status = status;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(input, count, options, chunkSize, from, middle, outputs, offsets, status),
+                        new BatchTask(input, count, options, chunkSize, middle, to, outputs, offsets, status));
+                return;
+            }
+            if (from >= to) return;
+            StringBuilder out = new StringBuilder(chunkSize * 32);
+            demangleRange(input, from * chunkSize, Math.min(count, to * chunkSize), options, out, offsets, status);
+            outputs[from] = out;
+        }
+    }
+
+    private static void demangleRange(BatchInput input, int from, int to, int options, StringBuilder out, int[] offsets, byte[] status) {
+        Demangler demangler = acquire();
+        try {
+            for (int i = from; i < to; i++) {
+                offsets[i] = out.length();
+                if (!input.load(demangler, i)) {
+                    status[i] = DemangleBatch.INVALID_PREFIX;
+                    continue;
+                }
+                status[i] = printBatchItem(demangler, options, out, offsets[i]);
+            }
+        } finally {
+            release(demangler);
+        }
+    }
+
+    private static byte printBatchItem(Demangler demangler, int options, StringBuilder out, int mark) {
+        SwiftSymbol symbol = demangler.demangleOrNull();
+        if (symbol == null) return DemangleBatch.FAILED;
+        try {
+            symbol.print(options, out);
+            return DemangleBatch.SUCCESS;
+        } catch (RuntimeException e) {
+            out.setLength(mark);
+            return DemangleBatch.FAILED;
+        }
+    }
+
+    private static DemangleBatch finishBatch(int count, StringBuilder out, int[] offsets, byte[] status) {
+        char[] chars = new char[out.length()];
+        out.getChars(0, chars.length, chars, 0);
+        return new DemangleBatch(count, chars, offsets, status);
+    }
+
+    // parseMangledSwiftSymbolToString打印符号用的选项
+    static final int rewriteOptions = SymbolPrinter.defaultOptions | SymbolPrinter.SYNTHESIZESUGARONTYPES;
+
+    // 默认不缓存, enableCache后demangle(String, int)和parseMangledSwiftSymbolToString共用.
+    private static volatile SymbolCache cache;
+
+    /*
+     * 打开共享的结果缓存, maxWeight为缓存的总字符数上限. 重复调用会替换掉原来的缓存.
+     */
+    public static SymbolCache enableCache(long maxWeight) {
+        SymbolCache created = new SymbolCache(maxWeight);
+        cache = created;
+        return created;
+    }
+
+    public static void disableCache() {
+        cache = null;
+    }
+
+    /* 当前的缓存, 未开启时为null */
+    public static SymbolCache cache() {
+        return cache;
+    }
+
+    // 解析结果(冻结的树)的缓存, 默认关闭.
+    private static volatile SymbolTreeCache treeCache;
+
+    public static SymbolTreeCache enableTreeCache(int maxEntries) {
+        SymbolTreeCache created = new SymbolTreeCache(maxEntries);
+        treeCache = created;
+        return created;
+    }
+
+    public static void disableTreeCache() {
+        treeCache = null;
+    }
+
+    public static SymbolTreeCache treeCache() {
+        return treeCache;
+    }
+
+    /*
+     * 返回解析好的树, 不是合法符号时返回null. 开启树缓存时返回的树是冻结的, 可以在线程间共享,
+     * 用不同的options打印时不再重新解析.
+     */
+    public static SwiftSymbol demangleTree(String mangled) {
+        return parseTree(mangled);
+    }
+
+    private static SwiftSymbol parseTree(String mangled) {
+        SymbolTreeCache trees = treeCache;
+        if (trees != null) return trees.get(mangled, MMSwiftDemangle::parseUncachedTree);
+        return parseUncachedTree(mangled);
+    }
+
+    private static SwiftSymbol parseUncachedTree(String mangled) {
+        DemangleResult result = tryParseMangledSwiftSymbol(mangled);
+        return result.isSuccess() ? result.symbol() : null;
+    }
+
+    // 同一台机器上多个JVM共用的缓存文件, 默认关闭.
+    private static volatile SharedSymbolCache sharedCache;
+
+    /*
+     * 映射(必要时创建)共享缓存文件, 替换掉原来的共享缓存. slots和dataBytes只在创建文件时使用.
+     */
+    public static SharedSymbolCache openSharedCache(Path file, int slots, long dataBytes) throws IOException {
+        SharedSymbolCache opened = SharedSymbolCache.open(file, slots, dataBytes);
+        sharedCache = opened;
+        return opened;
+    }
+
+    public static void closeSharedCache() {
+        sharedCache = null;
+    }
+
+    public static SharedSymbolCache sharedCache() {
+        return sharedCache;
+    }
+
+    // 当前app版本的离线字典, 在缓存和Demangler之前查找.
+    private static volatile SymbolDictionary dictionary;
+
+    /*
+     * 映射SymbolDictionary.build生成的字典文件并开始使用, 替换掉原来的字典.
+     */
+    public static SymbolDictionary openDictionary(Path file) throws IOException {
+        SymbolDictionary opened = SymbolDictionary.open(file);
+        dictionary = opened;
+        return opened;
+    }
+
+    public static void closeDictionary() {
+        dictionary = null;
+    }
+
+    public static SymbolDictionary dictionary() {
+        return dictionary;
+    }
+
+    /*
+     * 把共享缓存的条目写到快照文件, 不阻塞其他线程的demangle. 未开启缓存时返回0.
+     */
+    public static int saveCacheSnapshot(Path file) throws IOException {
+        SymbolCache cache = MMSwiftDemangle.cache;
+        return cache == null ? 0 : CacheSnapshot.write(cache, file);
+    }
+
+    /*
+     * 用快照文件预热共享缓存, 返回读到的条目数.
+     */
+    public static int loadCacheSnapshot(Path file) throws IOException {
+        SymbolCache cache = MMSwiftDemangle.cache;
+        if (cache == null) {
+            throw new IllegalStateException("cache is not enabled");
+        }
+        return CacheSnapshot.read(file, cache);
+    }
+
+    /*
+     * 返回mangled按options打印的结果, 不是合法符号时返回null. 开启缓存时先查缓存.
+     */
+    public static String demangle(String mangled, @SymbolPrinter.SymbolPrintOptions int options) {
+        return demangle(mangled, 0, mangled.length(), options);
+    }
+
+    // 记录失败过的输入, 默认关闭.
+    private static volatile NegativeCache negativeCache;
+
+    /*
+     * 打开负缓存, ttlMillis为0表示记录不过期. 重复调用会替换掉原来的负缓存.
+     */
+    public static NegativeCache enableNegativeCache(int capacity, long ttlMillis) {
+        NegativeCache created = new NegativeCache(capacity, ttlMillis);
+        negativeCache = created;
+        return created;
+    }
+
+    public static void disableNegativeCache() {
+        negativeCache = null;
+    }
+
+    public static NegativeCache negativeCache() {
+        return negativeCache;
+    }
+
+    // 共享缓存前面的线程本地缓存, 只在开启缓存时使用.
+    private static final ThreadLocal<LocalSymbolCache> localCaches = ThreadLocal.withInitial(LocalSymbolCache::new);
+
+    /* 当前线程的本地缓存, 用于查看命中率 */
+    public static LocalSymbolCache localCache() {
+        return localCaches.get();
+    }
+
+    /*
+     * 先查线程本地缓存, 未命中再查共享缓存. text[start, end)只在需要访问共享缓存时才生成子串.
+     */
+    private static String cachedDemangle(SymbolCache cache, String text, int start, int end, int options) {
+        LocalSymbolCache local = localCaches.get();
+        int hash = LocalSymbolCache.hash(text, start, end);
+        String value = local.get(cache, text, start, end, hash, options);
+        if (value != null) return value;
+        String key = substring(text, start, end);
+        value = cache.get(key, options, MMSwiftDemangle::demangleUncached);
+        if (value != null) local.put(key, hash, options, value);
+        return value;
+    }
+
+    /*
+     * text[start, end)按options打印的结果, 不是合法符号时返回null. demangle和parseMangledSwiftSymbolToString都走这里:
+     * 字典 -> 负缓存 -> 进程内缓存(线程本地, 共享) -> 跨进程共享缓存 -> 解析(并发合并, 经过树缓存). 子串只在需要时生成.
+     * 负缓存在缓存之前查: 已知失败的输入不生成子串和key, 也不计入缓存的未命中和准入频率.
+     */
+    private static String demangle(String text, int start, int end, int options) {
+        SymbolDictionary dictionary = MMSwiftDemangle.dictionary;
+        if (dictionary != null && dictionary.options() == options) {
+            String known = dictionary.lookup(text, start, end);
+            if (known != null) return known;
+        }
+        NegativeCache negative = negativeCache;
+        if (negative != null && negative.lookup(text, start, end) != null) return null;
+        SymbolCache cache = MMSwiftDemangle.cache;
+        if (cache != null) return cachedDemangle(cache, text, start, end, options);
+        SharedSymbolCache shared = sharedCache;
+        if (shared == null) return demangleUncached(substring(text, start, end), options);
+        String known = shared.get(text, start, end, options);
+        if (known != null) return known;
+        return parseAndShare(substring(text, start, end), options, shared);
+    }
+
+    private static String substring(String text, int start, int end) {
+        return start == 0 && end == text.length() ? text : text.substring(start, end);
+    }
+
+    // 同一个(符号, options)的并发加载只执行一次, 其余请求等待同一个结果.
+    private static final SingleFlight<FlightKey, String> flights = new SingleFlight<>();
+    // 异步请求单独合并: 异步计算内部会走同步路径, 共用一个会等待自己.
+    private static final SingleFlight<FlightKey, String> asyncFlights = new SingleFlight<>();
+
+    private static final class FlightKey {
+        final String mangled;
+        final int options;
+
+        FlightKey(String mangled, int options) {
+            this.mangled = mangled;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlightKey)) return false;
+            FlightKey other = (FlightKey) o;
+            return options == other.options && mangled.equals(other.mangled);
+        }
+
+        @Override
+        public int hashCode() {
+            return mangled.hashCode() * 31 + options;
+        }
+    }
+
+    /* 同步加载的合并统计 */
+    public static SingleFlight<?, String> singleFlight() {
+        return flights;
+    }
+
+    /* 异步请求的合并统计 */
+    public static SingleFlight<?, String> asyncSingleFlight() {
+        return asyncFlights;
+    }
+
+    /*
+     * demangle(String, int)的异步版本, 在common pool上执行.
+     * 不是合法符号时future以DemangleException失败, 原因见DemangleException.result().
+     */
+    public static CompletableFuture<String> demangleAsync(String mangled, @SymbolPrinter.SymbolPrintOptions int options) {
+        return demangleAsync(mangled, options, AsyncExecutor.instance);
+    }
+
+    /*
+     * 在调用者提供的executor上执行. 同一个符号同时只计算一次, 字典命中时直接返回已完成的future.
+     * executor最好复用线程, 每个任务一个新线程(如虚拟线程)会让线程本地的解析和打印状态无法复用.
+     */
+    public static CompletableFuture<String> demangleAsync(String mangled, @SymbolPrinter.SymbolPrintOptions int options, Executor executor) {
+        SymbolDictionary dictionary = MMSwiftDemangle.dictionary;
+        if (dictionary != null && dictionary.options() == options) {
+            String known = dictionary.lookup(mangled);
+            if (known != null) return CompletableFuture.completedFuture(known);
+        }
+        return asyncFlights.submit(new FlightKey(mangled, options), key -> demangleOrFail(key.mangled, key.options), executor);
+    }
+
+    /*
+     * parseMangledSwiftSymbolToString的异步版本, 不会失败, 没有符号的行原样返回.
+     */
+    public static CompletableFuture<String> rewriteLineAsync(String line) {
+        return rewriteLineAsync(line, AsyncExecutor.instance);
+    }
+
+    public static CompletableFuture<String> rewriteLineAsync(String line, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> parseMangledSwiftSymbolToString(line), executor);
+    }
+
+    /*
+     * 与demangle(String, int)走同一条查找链. 只有失败时才重新取失败原因(开启负缓存时直接取记录的结果).
+     */
+    private static String demangleOrFail(String mangled, int options) {
+        String value = demangle(mangled, 0, mangled.length(), options);
+        if (value == null) throw new CompletionException(new DemangleException(tryParseMangledSwiftSymbol(mangled)));
+        return value;
+    }
+
+    /*
+     * 默认的异步executor用common pool. demangle是纯CPU计算, 不会阻塞pool的线程; 而且线程是复用的,
+     * 线程本地的Demangler, printer, L1缓存和改写buffer才能跨任务复用. 每个任务一个虚拟线程时这些每次都要重新分配.
+     */
+    private static final class AsyncExecutor {
+        static final Executor instance = ForkJoinPool.commonPool();
+    }
+
+    /*
+     * 并发的相同请求只加载一次, 等待者直接拿到同一个结果. 不开缓存时也一样.
+     */
+    private static String demangleUncached(String mangled, int options) {
+        return flights.run(new FlightKey(mangled, options), key -> load(key.mangled, key.options));
+    }
+
+    /*
+     * 进程内缓存未命中时的加载: 先查跨进程的共享缓存, 再解析, 解析成功后写回共享缓存.
+     */
+    private static String load(String mangled, int options) {
+        SharedSymbolCache shared = sharedCache;
+        if (shared != null) {
+            String known = shared.get(mangled, options);
+            if (known != null) return known;
+        }
+        return parse(mangled, options, shared);
+    }
+
+    /*
+     * 调用者已经查过共享缓存且未命中, 不再探测一次. 并发的相同请求仍然合并.
+     */
+    private static String parseAndShare(String mangled, int options, SharedSymbolCache shared) {
+        return flights.run(new FlightKey(mangled, options), key -> parse(key.mangled, key.options, shared));
+    }
+
+    private static String parse(String mangled, int options, SharedSymbolCache shared) {
+        SwiftSymbol symbol = parseTree(mangled);
+        if (symbol == null) return null;
+        String value = symbol.print(options);
+        if (shared != null) shared.put(mangled, options, value);
+        return value;
     }
 
     /*
@@ -20,47 +602,167 @@ public class MMSwiftDemangle {
      * get a parsed SwiftSymbol class which can then be directly examined or printed.
      */
     public static String parseMangledSwiftSymbolToString(String mangled) {
-        String firstRegex = "!";
-        String[] titleAndBody = mangled.split(firstRegex);
-        if (titleAndBody.length != 2) return mangled;
-        mangled = titleAndBody[1];
-
-        String regex = " ";
-        String[] subStrings = mangled.split(regex);
-        String res = "";
-        for (String subStr:subStrings) {
-            subStr = subStr.trim();
-            try {
-                validateManglingPrefix(subStr);
-                SwiftSymbol symbol = parsedMangledSwiftSymbol(subStr);
-                String mangledStr = symbol.print(SymbolPrinter.defaultOptions | SymbolPrinter.SYNTHESIZESUGARONTYPES);
-                if (!mangledStr.isEmpty()) subStr = mangledStr;
-            }catch (Exception ext) {
-                System.out.println(ext.getStackTrace());
-            }finally {
-                res += subStr + regex;
+        /* 只处理恰好有一个'!'的行, 和原来split("!")的判断一致 */
+        int bang = mangled.indexOf('!');
+        if (bang < 0 || mangled.indexOf('!', bang + 1) >= 0) return mangled;
+
+        /* 一遍扫描, 只替换能demangle的token, 其余字符原样保留; 没有替换时返回原字符串 */
+        StringBuilder out = null;
+        int copied = 0;
+        int length = mangled.length();
+        int i = bang + 1;
+        while (i < length) {
+            while (i < length && mangled.charAt(i) <= ' ') i++;
+            int start = i;
+            while (i < length && mangled.charAt(i) > ' ') i++;
+            if (start == i || !hasManglingPrefix(mangled, start, i)) continue;
+
+            String text = demangle(mangled, start, i, rewriteOptions);
+            if (text == null) continue;
+            if (out == null) {
+                out = rewriteBuffer();
+            }
+            out.append(mangled, copied, start);
+            if (text.isEmpty()) {
+                out.append(mangled, start, i);
+            } else {
+                out.append(text);
             }
+            copied = i;
         }
+        if (out == null) return mangled;
+        out.append(mangled, copied, length);
+        return out.toString();
+    }
+
+    /*
+     * 对整个日志文件逐行做parseMangledSwiftSymbolToString, 结果写到output. 返回改写了的行数.
+     */
+    public static long rewriteLogFile(Path input, Path output) throws IOException {
+        return LogFileRewriter.rewrite(input, output);
+    }
+
+    /*
+     * 同上, 按行对齐切成chunk在pool上并行改写, 按原顺序写出.
+     */
+    public static long rewriteLogFile(Path input, Path output, ForkJoinPool pool) throws IOException {
+        return LogFileRewriter.rewriteParallel(input, output, pool);
+    }
+
+    /*
+     * 改写一份.crash或.ips崩溃报告里调用栈的符号, 返回替换的符号个数.
+     */
+    public static int rewriteCrashReport(Path input, Path output) throws IOException {
+        return CrashReportRewriter.rewrite(input, output);
+    }
+
+    // 每个线程复用一个输出buffer, 过大时收缩.
+    private static final ThreadLocal<StringBuilder> rewriteBuffers = ThreadLocal.withInitial(StringBuilder::new);
 
-        return titleAndBody[0] + "!" + res;
+    private static StringBuilder rewriteBuffer() {
+        StringBuilder buffer = rewriteBuffers.get();
+        buffer.setLength(0);
+        if (buffer.capacity() > 4096) buffer.trimToSize();
+        return buffer;
+    }
+
+    /*
+     * 开启负缓存时, 之前失败过的输入直接返回记录的结果, 不再解析.
+     */
+    private static DemangleResult tryParseMangledSwiftSymbol(String line, int start, int end) {
+        NegativeCache negative = negativeCache;
+        if (negative != null) {
+            DemangleResult known = negative.lookup(line, start, end);
+            if (known != null) return known;
+        }
+        DemangleResult result;
+        Demangler demangler = acquire();
+        try {
+            demangler.reset(line, start, end);
+            result = demangler.tryDemangleSymbol();
+        } finally {
+            release(demangler);
+        }
+        if (negative != null && !result.isSuccess()) negative.put(line, start, end, result);
+        return result;
     }
 
     /*
      * validate mangled symbol.
      */
     private static void validateManglingPrefix(String mangled) throws Exception {
-        /*
-        Swift 4   "_T0"
-        Swift 4.x "$S""_$S"
-        Swift 5+  "$s", "_$s"
-        */
-        String[] prefixes = new String[]{"_T0", "$S", "_$S", "$s", "_$s"};
-        boolean validate = false;
-        for (String prefix : prefixes) {
-            if (mangled.startsWith(prefix)) validate = true;
-        }
-        if (!validate) {
-            throw new Exception("invalidate mangled string, must has prefix: $s, $S, _T!");
+        if (!hasManglingPrefix(mangled)) {
+            throw new DemangleException("invalidate mangled string, must has prefix: $s, $S, _T!", DemangleResult.notMangled());
+        }
+    }
+
+    private static void validateManglingPrefix(byte[] mangled, int offset, int length) throws Exception {
+        if (!hasManglingPrefix(mangled, offset, length)) {
+            throw new DemangleException("invalidate mangled string, must has prefix: $s, $S, _T!", DemangleResult.notMangled());
+        }
+    }
+
+    private static void validateManglingPrefix(ByteBuffer mangled) throws Exception {
+        if (!hasManglingPrefix(mangled)) {
+            throw new DemangleException("invalidate mangled string, must has prefix: $s, $S, _T!", DemangleResult.notMangled());
+        }
+    }
+
+    /*
+    Swift 4   "_T0"
+    Swift 4.x "$S""_$S"
+    Swift 5+  "$s", "_$s"
+    */
+    private static final String[] manglingPrefixes = new String[]{"_T0", "$S", "_$S", "$s", "_$s"};
+
+    private static boolean hasManglingPrefix(String mangled) {
+        for (String prefix : manglingPrefixes) {
+            if (mangled.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasManglingPrefix(String mangled, int start, int end) {
+        for (String prefix : manglingPrefixes) {
+            if (end - start >= prefix.length() && mangled.startsWith(prefix, start)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasManglingPrefix(byte[] mangled, int offset, int length) {
+        for (String prefix : manglingPrefixes) {
+            if (length < prefix.length()) continue;
+            int i = 0;
+            while (i < prefix.length() && mangled[offset + i] == prefix.charAt(i)) {
+                i++;
+            }
+            if (i == prefix.length()) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasManglingPrefix(char[] mangled, int offset, int length) {
+        for (String prefix : manglingPrefixes) {
+            if (length < prefix.length()) continue;
+            int i = 0;
+            while (i < prefix.length() && mangled[offset + i] == prefix.charAt(i)) {
+                i++;
+            }
+            if (i == prefix.length()) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasManglingPrefix(ByteBuffer mangled) {
+        int position = mangled.position();
+        for (String prefix : manglingPrefixes) {
+            if (mangled.remaining() < prefix.length()) continue;
+            int i = 0;
+            while (i < prefix.length() && mangled.get(position + i) == prefix.charAt(i)) {
+                i++;
+            }
+            if (i == prefix.length()) return true;
         }
+        return false;
     }
 }
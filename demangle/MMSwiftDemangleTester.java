@@ -1,7 +1,19 @@
 package demangle;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class MMSwiftDemangleTester {
 
@@ -85,4 +97,311 @@ public class MMSwiftDemangleTester {
         MMSwiftDemangleTester tester = new MMSwiftDemangleTester();
         tester.demangle(mangledString, expectedStr);
     }
+
+    /*
+     * 扫描器复用数组后, 结果不能受同一线程上之前输入的影响, 也不能读到字节范围之外.
+     */
+    public static void doBoundsTest() {
+        String specialization = "generic specialization <Swift.MutableCollection> of main.f(A) -> ()";
+        checkBounds("fresh", MMSwiftDemangle.demangle("$s4main1fyyxlFSM_Tg5", SymbolPrinter.defaultOptions), specialization);
+        MMSwiftDemangle.demangle("$s4main1fyyxlFSM_Tg57", SymbolPrinter.defaultOptions);
+        checkBounds("after longer input", MMSwiftDemangle.demangle("$s4main1fyyxlFSM_Tg5", SymbolPrinter.defaultOptions), specialization);
+
+        MMSwiftDemangle.parseMangledSwiftSymbolToString("0 App 0x1!$s4main1fyyxlFSM_Tg57AAAAAAAAAAAAA + 1");
+        checkBounds("line after longer line", MMSwiftDemangle.parseMangledSwiftSymbolToString("0 App 0x1!$s4main1fyyxlFSM_Tg5 + 1"),
+                "0 App 0x1!" + specialization + " + 1");
+
+        checkBounds("malformed", MMSwiftDemangle.demangle("_T0lSN", SymbolPrinter.defaultOptions), null);
+
+        byte[] spaced = "$s4main1fyyxlFSM_Tg5 rest".getBytes();
+        byte[] joined = "$s4main1fyyxlFSM_Tg57rest".getBytes();
+        checkBounds("byte range", printed(spaced, 0, 20), printed(joined, 0, 20));
+    }
+
+    private static String printed(byte[] bytes, int offset, int length) {
+        DemangleResult result = MMSwiftDemangle.tryParseMangledSwiftSymbol(bytes, offset, length);
+        return result.isSuccess() ? result.symbol().print(SymbolPrinter.defaultOptions) : null;
+    }
+
+    private static void checkBounds(String name, String result, String expectedOutput) {
+        if (result == null ? expectedOutput != null : !result.equals(expectedOutput)) {
+            System.out.printf("\nFailed bounds case %s:\nGot:\n  %s\nexpected:\n  %s\n", name, result, expectedOutput);
+        } else {
+            System.out.printf("\nPassed bounds case %s\n", name);
+        }
+    }
+
+    private static final String[] sampleSymbols = {"$s4main3FooV3fooyyF", "$sSiN", "$s4main1fyyxlFSM_Tg5", "$s4main3FooVMn", "_T0lSN"};
+
+    private static String sampleLine(int i) {
+        return i + " App 0x" + Integer.toHexString(4096 + i) + " App!" + sampleSymbols[i % sampleSymbols.length] + " + " + i;
+    }
+
+    private static void check(String name, Object result, Object expectedOutput) {
+        if (result == null ? expectedOutput != null : !result.equals(expectedOutput)) {
+            System.out.printf("\nFailed case %s:\nGot:\n  %s\nexpected:\n  %s\n", name, result, expectedOutput);
+        } else {
+            System.out.printf("\nPassed case %s\n", name);
+        }
+    }
+
+    /*
+     * SymbolStreamProcessor: 跨多批输出顺序与输入一致; 下游不取时向上游的请求不超过batchSize * maxBatches;
+     * 下游取消或者请求非正数时上游被取消.
+     */
+    public static void doStreamTest() {
+        try {
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                SymbolStreamProcessor<String> processor = SymbolStreamProcessor.lines(pool, 4, 3);
+                TestDownstream<String> out = new TestDownstream<>(Long.MAX_VALUE);
+                processor.subscribe(out);
+                TestUpstream in = new TestUpstream();
+                processor.onSubscribe(in);
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    in.awaitDemand(i);
+                    processor.onNext(sampleLine(i));
+                    expected.add(MMSwiftDemangle.parseMangledSwiftSymbolToString(sampleLine(i)));
+                }
+                processor.onComplete();
+                check("stream completes", out.done.await(10, TimeUnit.SECONDS) && out.error == null, true);
+                check("stream order", out.items, expected);
+            } finally {
+                pool.shutdown();
+            }
+
+            /* 同步executor, 结果是确定的: 每行单独成批 */
+            SymbolStreamProcessor<String> processor = SymbolStreamProcessor.lines(Runnable::run, 4, 3);
+            TestDownstream<String> out = new TestDownstream<>(0);
+            processor.subscribe(out);
+            TestUpstream in = new TestUpstream();
+            processor.onSubscribe(in);
+            for (int i = 0; i < 12; i++) processor.onNext(sampleLine(i));
+            check("stream bounded request", in.requested, 12L);
+            check("stream no demand", out.items.size(), 0);
+            out.subscription.request(5);
+            check("stream partial demand", out.items.size(), 5);
+            check("stream replenish", in.requested, 17L);
+            out.subscription.cancel();
+            check("stream cancel", in.cancelled, true);
+            processor.onNext(sampleLine(12));
+            out.subscription.request(100);
+            check("stream after cancel", out.items.size(), 5);
+
+            processor = SymbolStreamProcessor.lines(Runnable::run, 4, 3);
+            out = new TestDownstream<>(0);
+            processor.subscribe(out);
+            in = new TestUpstream();
+            processor.onSubscribe(in);
+            out.subscription.request(0);
+            check("stream non-positive request", out.error instanceof IllegalArgumentException && in.cancelled, true);
+        } catch (Exception ext) {
+            System.out.printf("\nFailed stream case, exception throwed!\n  %s\n", ext);
+        }
+    }
+
+    /*
+     * LogFileRewriter.rewrite: 很小的窗口和输出buffer, 覆盖行跨窗口, 行比窗口长, "\r\n"和最后一行没有换行符.
+     * 结果必须与逐行parseMangledSwiftSymbolToString逐字节相同.
+     */
+    public static void doLogFileTest() {
+        try {
+            StringBuilder input = new StringBuilder();
+            StringBuilder expected = new StringBuilder();
+            long rewritten = sampleLog(input, expected);
+            Path in = Files.createTempFile("demangle", ".log");
+            Path out = Files.createTempFile("demangle", ".out");
+            try {
+                Files.write(in, input.toString().getBytes(StandardCharsets.UTF_8));
+                byte[] expectedBytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+                long[] windows = {1, 3, 64, 1000, LogFileRewriter.defaultWindowSize};
+                int[] buffers = {16, LogFileRewriter.defaultBufferSize};
+                for (long window : windows) {
+                    for (int buffer : buffers) {
+                        long count = LogFileRewriter.rewrite(in, out, window, buffer);
+                        String name = "log file window " + window + " buffer " + buffer;
+                        check(name + " bytes", Arrays.equals(Files.readAllBytes(out), expectedBytes), true);
+                        check(name + " count", count, rewritten);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(in);
+                Files.deleteIfExists(out);
+            }
+        } catch (Exception ext) {
+            System.out.printf("\nFailed log file case, exception throwed!\n  %s\n", ext);
+        }
+    }
+
+    /*
+     * LogFileRewriter.rewriteParallel: chunk很小时切成很多chunk, 输出必须与串行的rewrite逐字节相同.
+     */
+    public static void doParallelLogFileTest() {
+        try {
+            StringBuilder input = new StringBuilder();
+            sampleLog(input, new StringBuilder());
+            Path in = Files.createTempFile("demangle", ".log");
+            Path serial = Files.createTempFile("demangle", ".out");
+            Path parallel = Files.createTempFile("demangle", ".out");
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                Files.write(in, input.toString().getBytes(StandardCharsets.UTF_8));
+                long expectedCount = LogFileRewriter.rewrite(in, serial);
+                byte[] expectedBytes = Files.readAllBytes(serial);
+                int[] chunks = {1, 7, 64, LogFileRewriter.defaultChunkSize};
+                for (int chunk : chunks) {
+                    long count = LogFileRewriter.rewriteParallel(in, parallel, pool, chunk, 16);
+                    check("parallel log file chunk " + chunk + " bytes", Arrays.equals(Files.readAllBytes(parallel), expectedBytes), true);
+                    check("parallel log file chunk " + chunk + " count", count, expectedCount);
+                }
+            } finally {
+                pool.shutdown();
+                Files.deleteIfExists(in);
+                Files.deleteIfExists(serial);
+                Files.deleteIfExists(parallel);
+            }
+        } catch (Exception ext) {
+            System.out.printf("\nFailed parallel log file case, exception throwed!\n  %s\n", ext);
+        }
+    }
+
+    /*
+     * 生成一份日志和逐行改写后的期望结果, 返回改写了的行数.
+     */
+    private static long sampleLog(StringBuilder input, StringBuilder expected) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) lines.add(sampleLine(i));
+        lines.add("");
+        lines.add("no symbol on this line");
+        lines.add("two!bangs!$sSiN");
+        lines.add("日志 App!$sSiN 结束");
+        StringBuilder longLine = new StringBuilder("0 App 0x1 App!");
+        for (int i = 0; i < 30; i++) longLine.append(sampleSymbols[i % sampleSymbols.length]).append(' ');
+        lines.add(longLine.toString());
+        lines.add("last App!$s4main3FooVMn + 4");
+        long rewritten = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            String ending = i == lines.size() - 1 ? "" : i % 3 == 0 ? "\r\n" : "\n";
+            String result = MMSwiftDemangle.parseMangledSwiftSymbolToString(line);
+            if (!result.equals(line)) rewritten++;
+            input.append(line).append(ending);
+            expected.append(result).append(ending);
+        }
+        return rewritten;
+    }
+
+    /*
+     * CrashReportRewriter: .ips的header和body, 带转义的symbol值; .crash里镜像名含空格的帧; 不是帧的内容原样保留.
+     */
+    public static void doCrashReportTest() {
+        try {
+            String foo = MMSwiftDemangle.demangle("$s4main3FooV3fooyyF", MMSwiftDemangle.rewriteOptions);
+            String metadata = MMSwiftDemangle.demangle("$sSiN", MMSwiftDemangle.rewriteOptions);
+            String specialization = MMSwiftDemangle.demangle("$s4main1fyyxlFSM_Tg5", MMSwiftDemangle.rewriteOptions);
+
+            String header = "{\"app_name\":\"My App\",\"timestamp\":\"2026-10-18 09:00:00.00 +0000\",\"bug_type\":\"309\",\"name\":\"$sSiN\"}\n";
+            String body = "{\n  \"threads\" : [{\"triggered\":true,\"frames\":[%s,%s,%s,%s]}],\n"
+                    + "  \"lastExceptionBacktrace\" : [%s],\n  \"note\" : \"$sSiN \\\"quoted\\\"\"\n}";
+            String ips = header + String.format(body,
+                    "{\"imageOffset\":4096,\"symbol\":\"$s4main3FooV3fooyyF\",\"symbolLocation\":40,\"imageIndex\":0}",
+                    "{\"imageOffset\":8,\"symbol\":\"\\u0024sSiN\",\"imageIndex\":0}",
+                    "{\"imageOffset\":12,\"symbol\":\"__pthread_kill\"}",
+                    "{\"symbol\":\"_T0lSN\"}",
+                    "{\"symbol\":\"$s4main1fyyxlFSM_Tg5\"}");
+            String ipsExpected = header + String.format(body,
+                    "{\"imageOffset\":4096,\"symbol\":\"" + foo + "\",\"symbolLocation\":40,\"imageIndex\":0}",
+                    "{\"imageOffset\":8,\"symbol\":\"" + metadata + "\",\"imageIndex\":0}",
+                    "{\"imageOffset\":12,\"symbol\":\"__pthread_kill\"}",
+                    "{\"symbol\":\"_T0lSN\"}",
+                    "{\"symbol\":\"" + specialization + "\"}");
+            checkCrashReport("ips", ips, ipsExpected, 3);
+
+            String crash = "Process:               My App [1234]\n"
+                    + "Path:                  /private/var/containers/Bundle/Application/X/My App.app/My App\n"
+                    + "Exception Note:        $sSiN\n"
+                    + "\n"
+                    + "Thread 0 Crashed:\n"
+                    + "0   libsystem_kernel.dylib        \t0x00000001c1b2c0d8 __pthread_kill + 8\n"
+                    + "1   My App Helper                 \t0x0000000100a0c8f4 %s + 40\n"
+                    + "2   My App                        \t0x0000000100a0c900 %s + 12\r\n"
+                    + "3   My App                        \t0x0000000100a0c990 _T0lSN + 4\n"
+                    + "4   My App                        \t0x0000000100a0c9a0 0x100000000 + 10652064\n"
+                    + "\n"
+                    + "Binary Images:\n"
+                    + "0x100000000 - 0x100ffffff My App arm64  <0123456789abcdef> /private/var/containers/My App.app/My App";
+            checkCrashReport("crash", String.format(crash, "$s4main3FooV3fooyyF", "$s4main1fyyxlFSM_Tg5"),
+                    String.format(crash, foo, specialization), 2);
+        } catch (Exception ext) {
+            System.out.printf("\nFailed crash report case, exception throwed!\n  %s\n", ext);
+        }
+    }
+
+    private static void checkCrashReport(String name, String report, String expectedOutput, int expectedCount) throws IOException {
+        StringWriter out = new StringWriter();
+        int count = CrashReportRewriter.rewrite(new StringReader(report), out);
+        check("crash report " + name, out.toString(), expectedOutput);
+        check("crash report " + name + " count", count, expectedCount);
+    }
+
+    private static final class TestUpstream implements Flow.Subscription {
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public synchronized void request(long n) {
+            requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        synchronized void awaitDemand(long emitted) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!cancelled && requested <= emitted) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) throw new IllegalStateException("no upstream demand after " + emitted + " lines");
+                wait(left);
+            }
+        }
+    }
+
+    private static final class TestDownstream<R> implements Flow.Subscriber<R> {
+        final List<R> items = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        private final long initialRequest;
+        Flow.Subscription subscription;
+        volatile Throwable error;
+
+        TestDownstream(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(R item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
 }
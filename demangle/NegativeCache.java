@@ -0,0 +1,136 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * 记录demangle失败过的输入(前缀合法, 但被截断或损坏的token), 再次遇到时只需一次hash查找.
+ *
+ * 只保存64位指纹, 失败原因, 位置和过期时间, 不保存字符串本身. 每个槽位3个long: [seq, 指纹, 数据],
+ * 用seqlock保证读到的指纹和数据是同一次写入的: 写者把seq改成奇数, 写完再改成偶数;
+ * 读者前后两次读到的seq相同且为偶数时才采用. 槽位满了直接覆盖, 相当于有损的集合.
+ */
+public final class NegativeCache {
+
+    private static final VarHandle slots = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final SymbolScanner.MangledExceptionType[] reasons = SymbolScanner.MangledExceptionType.values();
+
+    private final long[] table;
+    private final int mask;
+    private final long ttlMillis;
+    private final long baseMillis = System.currentTimeMillis();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /*
+     * capacity向上取整到2的幂. ttlMillis为0表示不过期.
+     */
+    public NegativeCache(int capacity, long ttlMillis) {
+        if (capacity <= 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("capacity " + capacity + ", ttlMillis " + ttlMillis);
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.table = new long[size * 3];
+        this.mask = size - 1;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /*
+     * text[start, end)之前失败过时返回当时的结果, 否则返回null.
+     */
+    public DemangleResult lookup(CharSequence text, int start, int end) {
+        long fingerprint = fingerprint(text, start, end);
+        int base = ((int) fingerprint & mask) * 3;
+        long seq = (long) slots.getAcquire(table, base);
+        long stored = (long) slots.getOpaque(table, base + 1);
+        long data = (long) slots.getOpaque(table, base + 2);
+        VarHandle.loadLoadFence();
+        if ((seq & 1) != 0 || seq != (long) slots.getOpaque(table, base) || stored != fingerprint) {
+            misses.increment();
+            return null;
+        }
+        int expiry = (int) data;
+        if (expiry != 0 && seconds() - expiry >= 0) {
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return DemangleResult.failure(reasons[(int) (data >>> 56)], (int) (data >>> 32) & 0xFFFFFF);
+    }
+
+    public DemangleResult lookup(CharSequence text) {
+        return lookup(text, 0, text.length());
+    }
+
+    /*
+     * 记录一次失败. 成功的结果不记录.
+     */
+    public void put(CharSequence text, int start, int end, DemangleResult result) {
+        if (result.isSuccess()) return;
+        long fingerprint = fingerprint(text, start, end);
+        int expiry = ttlMillis == 0 ? 0 : seconds() + (int) Math.max(1, (ttlMillis + 999) / 1000);
+        long data = ((long) result.reason().ordinal() << 56)
+                | ((long) Math.min(Math.max(result.offset(), 0), 0xFFFFFF) << 32)
+                | (expiry & 0xFFFFFFFFL);
+        int base = ((int) fingerprint & mask) * 3;
+        long seq = (long) slots.getVolatile(table, base);
+        // 另一个线程正在写这个槽位时放弃, 少记一次没有关系
+        if ((seq & 1) != 0 || !slots.compareAndSet(table, base, seq, seq + 1)) return;
+        slots.setOpaque(table, base + 1, fingerprint);
+        slots.setOpaque(table, base + 2, data);
+        slots.setRelease(table, base, seq + 2);
+    }
+
+    public void put(CharSequence text, DemangleResult result) {
+        put(text, 0, text.length(), result);
+    }
+
+    public void clear() {
+        for (int base = 0; base < table.length; base += 3) {
+            long seq = (long) slots.getVolatile(table, base);
+            if ((seq & 1) != 0 || !slots.compareAndSet(table, base, seq, seq + 1)) continue;
+            slots.setOpaque(table, base + 1, 0L);
+            slots.setOpaque(table, base + 2, 0L);
+            slots.setRelease(table, base, seq + 2);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    /*
+     * 64位指纹, 低位决定槽位. 0留给空槽位.
+     */
+    private static long fingerprint(CharSequence text, int start, int end) {
+        long h = 0xcbf29ce484222325L ^ (end - start);
+        for (int i = start; i < end; i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    // 距创建时的秒数, 从1开始, 0表示不过期
+    private int seconds() {
+        return (int) ((System.currentTimeMillis() - baseMillis) / 1000) + 1;
+    }
+}
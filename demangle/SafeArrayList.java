@@ -1,9 +1,15 @@
 package demangle;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 public class SafeArrayList <E> extends ArrayList<E> {
+    // 冻结后不可修改, 用于多个结果共享的节点.
+    private boolean frozen;
 
     class Enumerator {
         int offset;
@@ -14,6 +20,113 @@ public class SafeArrayList <E> extends ArrayList<E> {
         }
     }
 
+    public SafeArrayList<E> freeze() {
+        trimToSize();
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) throw new UnsupportedOperationException("shared symbol children can not be modified");
+    }
+
+    @Override
+    public boolean add(E e) {
+        checkMutable();
+        return super.add(e);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkMutable();
+        super.add(index, element);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        checkMutable();
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        checkMutable();
+        return super.addAll(index, c);
+    }
+
+    @Override
+    public E set(int index, E element) {
+        checkMutable();
+        return super.set(index, element);
+    }
+
+    @Override
+    public E remove(int index) {
+        checkMutable();
+        return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        checkMutable();
+        return super.remove(o);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        checkMutable();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        checkMutable();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        checkMutable();
+        return super.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<E> operator) {
+        checkMutable();
+        super.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(Comparator<? super E> c) {
+        checkMutable();
+        super.sort(c);
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        super.clear();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        checkMutable();
+        super.removeRange(fromIndex, toIndex);
+    }
+
+    /*
+     * ArrayList的subList直接修改底层数组, 冻结后返回复制的list.
+     */
+    @Override
+    public List<E> subList(int fromIndex, int toIndex) {
+        if (frozen) return new SafeArrayList<>(super.subList(fromIndex, toIndex));
+        return super.subList(fromIndex, toIndex);
+    }
+
     @Override
     public E get(int index) {
         if (index < 0 || index >= this.size()) {
@@ -22,6 +135,14 @@ public class SafeArrayList <E> extends ArrayList<E> {
         return super.get(index);
     }
 
+    public SafeArrayList() {
+        super();
+    }
+
+    public SafeArrayList(Collection<? extends E> c) {
+        super(c);
+    }
+
     //first(where:);
     public Enumerator First(Utility.First condition) {
         for (int i = 0; i < this.size(); i ++) {
@@ -0,0 +1,216 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * 放在共享内存映射文件里的demangle缓存, 同一台机器上的多个JVM可以同时读写.
+ *
+ * 文件布局(本机字节序):
+ *   header 64字节: magic, version, slotCount, 0, dataCapacity(long), dataTop(long)
+ *   slots: slotCount个 {long hash, long record}, 开放寻址, 线性探测
+ *   data: record = {int keyLength, int valueLength, int options, key UTF-8, value UTF-8}, 8字节对齐
+ *
+ * 插入: CAS把空槽位的hash从0改成自己的hash占住槽位, 用CAS推进dataTop分配record, 写完record后
+ * 再release写入record的位置. 读者acquire读到非0的record位置后才读record.
+ * record为0的槽位可能正在写, 也可能永远不会写完: 写入的进程在CAS和publish之间退出, 或者publish时data空间不够.
+ * 这样的槽位无法安全回收(不知道写入者是否还活着), 所以读写都跳过它继续探测, 同一个key可以在后面的槽位插入,
+ * 代价只是多一次探测. 并发插入同一个key时可能占用两个槽位, 两个record内容相同, 不影响结果.
+ * 条目只增不删, 空间或槽位用完后不再插入, 要回收只能删除文件重建.
+ */
+public final class SharedSymbolCache {
+
+    private static final int magic = 0x4D535343; // "MSSC"
+    private static final int version = 1;
+    private static final int headerSize = 64;
+    private static final int slotSize = 16;
+    private static final int recordHeader = 12;
+    private static final int maxProbes = 32;
+
+    private static final VarHandle longs = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int mask;
+    private final long dataCapacity;
+    private final int dataOffset;
+
+    private SharedSymbolCache(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.slotCount = buffer.getInt(8);
+        this.mask = slotCount - 1;
+        this.dataCapacity = buffer.getLong(16);
+        this.dataOffset = headerSize + slotCount * slotSize;
+    }
+
+    /*
+     * 打开或创建共享缓存文件. 文件已存在时沿用文件里的大小, 参数只在创建时使用.
+     * slots向上取整到2的幂, 文件总大小不能超过2GB.
+     */
+    public static SharedSymbolCache open(Path file, int slots, long dataBytes) throws IOException {
+        int slotCount = Integer.highestOneBit(Math.max(slots, 16) - 1) << 1;
+        long size = headerSize + (long) slotCount * slotSize + dataBytes;
+        if (slots <= 0 || dataBytes <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slots " + slots + ", dataBytes " + dataBytes);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 文件锁只在初始化时用, 防止两个进程同时写header
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() == 0) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    buffer.order(ByteOrder.nativeOrder());
+                    buffer.putInt(4, version);
+                    buffer.putInt(8, slotCount);
+                    buffer.putLong(16, dataBytes);
+                    buffer.putLong(24, 0);
+                    buffer.putInt(0, magic);
+                    buffer.force();
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                buffer.order(ByteOrder.nativeOrder());
+                if (buffer.capacity() < headerSize || buffer.getInt(0) != magic || buffer.getInt(4) != version) {
+                    throw new IOException("not a shared demangle cache: " + file);
+                }
+                int existingSlots = buffer.getInt(8);
+                if (existingSlots <= 0 || Integer.bitCount(existingSlots) != 1
+                        || headerSize + (long) existingSlots * slotSize + buffer.getLong(16) > buffer.capacity()) {
+                    throw new IOException("corrupt shared demangle cache: " + file);
+                }
+                return new SharedSymbolCache(buffer);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    public String get(String mangled, int options) {
+        return get(mangled, 0, mangled.length(), options);
+    }
+
+    /*
+     * 查找text[start, end), 没有或者还没写完时返回null.
+     */
+    public String get(CharSequence text, int start, int end, int options) {
+        long hash = hash(text, start, end, options);
+        int slot = (int) hash & mask;
+        for (int probe = 0; probe < maxProbes; probe++) {
+            int base = headerSize + slot * slotSize;
+            long stored = (long) longs.getAcquire(buffer, base);
+            if (stored == 0) return null;
+            if (stored == hash) {
+                long record = (long) longs.getAcquire(buffer, base + 8);
+                if (record != 0 && matches((int) record, text, start, end, options)) {
+                    int keyLength = buffer.getInt((int) record);
+                    int valueLength = buffer.getInt((int) record + 4);
+                    byte[] bytes = new byte[valueLength];
+                    buffer.get((int) record + recordHeader + keyLength, bytes);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /*
+     * 插入一条, 已存在或者空间不够时什么都不做. 返回是否由这次调用插入.
+     */
+    public boolean put(String mangled, int options, String value) {
+        byte[] key = mangled.getBytes(StandardCharsets.UTF_8);
+        byte[] text = value.getBytes(StandardCharsets.UTF_8);
+        long length = (recordHeader + key.length + text.length + 7) & ~7L;
+        // 明显放不下时不占槽位
+        if ((long) longs.getVolatile(buffer, 24) + length > dataCapacity) return false;
+        long hash = hash(mangled, 0, mangled.length(), options);
+        int slot = (int) hash & mask;
+        for (int probe = 0; probe < maxProbes; probe++) {
+            int base = headerSize + slot * slotSize;
+            long stored = (long) longs.getAcquire(buffer, base);
+            if (stored == 0) {
+                if (longs.compareAndSet(buffer, base, 0L, hash)) {
+                    return publish(base, key, text, length, options);
+                }
+                stored = (long) longs.getAcquire(buffer, base);
+            }
+            if (stored == hash) {
+                long record = (long) longs.getAcquire(buffer, base + 8);
+                if (record != 0 && matches((int) record, mangled, 0, mangled.length(), options)) return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /* 已使用的data字节数 */
+    public long usedBytes() {
+        return Math.min((long) longs.getVolatile(buffer, 24), dataCapacity);
+    }
+
+    public long capacityBytes() {
+        return dataCapacity;
+    }
+
+    private boolean publish(int base, byte[] key, byte[] text, long length, int options) {
+        long top = (long) longs.getAndAdd(buffer, 24, length);
+        if (top + length > dataCapacity) {
+            // 空间用完, 槽位保持占用但没有record, 之后读写都跳过它
+            return false;
+        }
+        int record = (int) (dataOffset + top);
+        buffer.putInt(record, key.length);
+        buffer.putInt(record + 4, text.length);
+        buffer.putInt(record + 8, options);
+        buffer.put(record + recordHeader, key);
+        buffer.put(record + recordHeader + key.length, text);
+        longs.setRelease(buffer, base + 8, (long) record);
+        return true;
+    }
+
+    private boolean matches(int record, CharSequence text, int start, int end, int options) {
+        if (buffer.getInt(record + 8) != options) return false;
+        int keyLength = buffer.getInt(record);
+        int offset = record + recordHeader;
+        if (keyLength < end - start) return false;
+        int j = offset;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+                if (bytes.length != keyLength) return false;
+                for (int k = 0; k < keyLength; k++) {
+                    if (buffer.get(offset + k) != bytes[k]) return false;
+                }
+                return true;
+            }
+            if (buffer.get(j++) != c) return false;
+        }
+        return j == offset + keyLength;
+    }
+
+    /*
+     * 按char计算, 不同进程得到相同的值. 0表示空槽位, 不会返回0.
+     */
+    private static long hash(CharSequence text, int start, int end, int options) {
+        long h = 0xcbf29ce484222325L ^ options;
+        for (int i = start; i < end; i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
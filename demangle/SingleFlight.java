@@ -0,0 +1,96 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * 合并对同一个key的并发计算: 第一个请求负责计算, 计算期间到达的请求等待并拿到同一个结果.
+ * 计算结束后立即移除, 不缓存结果(缓存由SymbolCache负责).
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /*
+     * 同步版本, 在调用线程上计算或等待. compute抛出的异常会传给所有等待者.
+     */
+    public V run(K key, Function<? super K, ? extends V> compute) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = flights.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw e;
+            }
+        }
+        executed.increment();
+        try {
+            V value = compute.apply(key);
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, mine);
+        }
+    }
+
+    /*
+     * 异步版本, 需要计算时交给executor. 返回的future是副本, 调用者完成或取消它不影响其他等待者.
+     */
+    public CompletableFuture<V> submit(K key, Function<? super K, ? extends V> compute, Executor executor) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = flights.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+        executed.increment();
+        try {
+            executor.execute(() -> {
+                try {
+                    mine.complete(compute.apply(key));
+                } catch (Throwable t) {
+                    mine.completeExceptionally(t);
+                } finally {
+                    flights.remove(key, mine);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flights.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine.copy();
+    }
+
+    /* 正在计算的key数 */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    /* 实际执行计算的次数 */
+    public long executed() {
+        return executed.sum();
+    }
+
+    /* 被合并到已有计算上的请求数 */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+}
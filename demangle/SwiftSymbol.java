@@ -4,8 +4,11 @@
 
 package demangle;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SwiftSymbol {
 
@@ -35,12 +38,29 @@ public class SwiftSymbol {
             return this.value;
         }
 
+        private static final FunctionSigSpecializationParamKind[] kinds = {
+                constantPropFunction, constantPropGlobal, constantPropInteger, constantPropFloat,
+                constantPropString, closureProp, boxToValue, boxToStack
+        };
+
+        /* 0...7为连续的kind, 其余为单bit的flag(dead...existentialToGeneric), 按bit位置查表 */
+        private static final FunctionSigSpecializationParamKind[] flags = new FunctionSigSpecializationParamKind[11];
+
+        static {
+            flags[6] = dead;
+            flags[7] = ownedToGuaranteed;
+            flags[8] = sroa;
+            flags[9] = guaranteedToOwned;
+            flags[10] = existentialToGeneric;
+        }
+
         public static FunctionSigSpecializationParamKind paramKind(int nCode) {
-            FunctionSigSpecializationParamKind[] enums = FunctionSigSpecializationParamKind.values();
-            for (FunctionSigSpecializationParamKind em : enums) {
-                if (em.value == nCode) {
-                    return em;
-                }
+            if (nCode >= 0 && nCode < kinds.length) {
+                return kinds[nCode];
+            }
+            if (nCode > 0 && (nCode & (nCode - 1)) == 0) {
+                int bit = Integer.numberOfTrailingZeros(nCode);
+                return bit < flags.length ? flags[bit] : null;
             }
             return null;
         }
@@ -82,13 +102,10 @@ public class SwiftSymbol {
             this.nCode = n;
         }
 
+        private static final Directness[] values = values();
+
         static public Directness DirectnessWithValue(int n) {
-            for (Directness dir : Directness.values()) {
-                if (dir.nCode == n) {
-                    return dir;
-                }
-            }
-            return null;
+            return n >= 0 && n < values.length ? values[n] : null;
         }
 
         public String description() {
@@ -163,68 +180,64 @@ public class SwiftSymbol {
             this.nCode = n;
         }
 
+        /* nCode与ordinal一致, 直接按下标取 */
+        private static final ValueWitnessKind[] byCode = values();
+
+        /* 两字符的mangling码 -> kind, 第一个字符一级, 第二个字符二级, 都是ASCII */
+        private static final ValueWitnessKind[][] byChars = new ValueWitnessKind[128][];
+
+        static {
+            code("al", allocateBuffer);
+            code("ca", assignWithCopy);
+            code("ta", assignWithTake);
+            code("de", deallocateBuffer);
+            code("xx", destroy);
+            code("XX", destroyBuffer);
+            code("Xx", destroyArray);
+            code("CP", initializeBufferWithCopyOfBuffer);
+            code("Cp", initializeBufferWithCopy);
+            code("cp", initializeWithCopy);
+            code("Tk", initializeBufferWithTake);
+            code("tk", initializeWithTake);
+            code("pr", projectBuffer);
+            code("TK", initializeBufferWithTakeOfBuffer);
+            code("Cc", initializeArrayWithCopy);
+            code("Tt", initializeArrayWithTakeFrontToBack);
+            code("tT", initializeArrayWithTakeBackToFront);
+            code("xs", storeExtraInhabitant);
+            code("xg", getExtraInhabitantIndex);
+            code("ug", getEnumTag);
+            code("up", destructiveProjectEnumData);
+            code("ui", destructiveInjectEnumTag);
+            code("et", getEnumTagSinglePayload);
+            code("st", storeEnumTagSinglePayload);
+        }
+
+        private static void code(String chars, ValueWitnessKind kind) {
+            char first = chars.charAt(0);
+            if (byChars[first] == null) {
+                byChars[first] = new ValueWitnessKind[128];
+            }
+            byChars[first][chars.charAt(1)] = kind;
+        }
+
         public static ValueWitnessKind WitnessKindWithString(int nCode) {
-            for (ValueWitnessKind dir : ValueWitnessKind.values()) {
-                if (dir.nCode == nCode) {
-                    return dir;
-                }
+            return nCode >= 0 && nCode < byCode.length ? byCode[nCode] : null;
+        }
+
+        public static ValueWitnessKind WitnessKindWithChars(char first, char second) {
+            if (first >= 128 || second >= 128) {
+                return null;
             }
-            return null;
+            ValueWitnessKind[] row = byChars[first];
+            return row != null ? row[second] : null;
         }
 
         public static ValueWitnessKind WitnessKindWithString(String str) {
-            switch (str) {
-                case "al":
-                    return ValueWitnessKind.allocateBuffer;
-                case "ca":
-                    return ValueWitnessKind.assignWithCopy;
-                case "ta":
-                    return ValueWitnessKind.assignWithTake;
-                case "de":
-                    return ValueWitnessKind.deallocateBuffer;
-                case "xx":
-                    return ValueWitnessKind.destroy;
-                case "XX":
-                    return ValueWitnessKind.destroyBuffer;
-                case "Xx":
-                    return ValueWitnessKind.destroyArray;
-                case "CP":
-                    return ValueWitnessKind.initializeBufferWithCopyOfBuffer;
-                case "Cp":
-                    return ValueWitnessKind.initializeBufferWithCopy;
-                case "cp":
-                    return ValueWitnessKind.initializeWithCopy;
-                case "Tk":
-                    return ValueWitnessKind.initializeBufferWithTake;
-                case "tk":
-                    return ValueWitnessKind.initializeWithTake;
-                case "pr":
-                    return ValueWitnessKind.projectBuffer;
-                case "TK":
-                    return ValueWitnessKind.initializeBufferWithTakeOfBuffer;
-                case "Cc":
-                    return ValueWitnessKind.initializeArrayWithCopy;
-                case "Tt":
-                    return ValueWitnessKind.initializeArrayWithTakeFrontToBack;
-                case "tT":
-                    return ValueWitnessKind.initializeArrayWithTakeBackToFront;
-                case "xs":
-                    return ValueWitnessKind.storeExtraInhabitant;
-                case "xg":
-                    return ValueWitnessKind.getExtraInhabitantIndex;
-                case "ug":
-                    return ValueWitnessKind.getEnumTag;
-                case "up":
-                    return ValueWitnessKind.destructiveProjectEnumData;
-                case "ui":
-                    return ValueWitnessKind.destructiveInjectEnumTag;
-                case "et":
-                    return ValueWitnessKind.getEnumTagSinglePayload;
-                case "st":
-                    return ValueWitnessKind.storeEnumTagSinglePayload;
-                default:
-                    return null;
+            if (str == null || str.length() != 2) {
+                return null;
             }
+            return WitnessKindWithChars(str.charAt(0), str.charAt(1));
         }
 
         public String toString() {
@@ -700,24 +713,70 @@ public class SwiftSymbol {
         this.contents = new Contents();
     }
 
+    /*
+     * 标准库类型 type -> kind -> (module "Swift", identifier name).
+     * 已有共享节点时直接引用, 只新建外层的type节点.
+     */
     public SwiftSymbol(Kind swiftStdlibTypeKind, String name) {
-        SwiftSymbol child1 = new SwiftSymbol(Kind.module, new SafeArrayList<>(), new Contents(Demangler.stdlibName));
-        SwiftSymbol child2 = new SwiftSymbol(Kind.identifier, new SafeArrayList<>(), new Contents(name));
-        SafeArrayList children1 = Utility.CreateLists(child1, child2);
-        SafeArrayList children2 = Utility.CreateLists(new SwiftSymbol(swiftStdlibTypeKind, children1, null));
+        SwiftSymbol nominal = SharedNodes.nominals.get(swiftStdlibTypeKind.name() + "." + name);
+        if (nominal == null) {
+            SwiftSymbol child2 = new SwiftSymbol(Kind.identifier, new SafeArrayList<>(), new Contents(name));
+            nominal = new SwiftSymbol(swiftStdlibTypeKind, Utility.CreateLists(SharedNodes.stdlibModule, child2), null);
+        }
         this.kind = Kind.type;
-        this.children = children2;
+        this.children = Utility.CreateLists(nominal);
         this.contents = new Contents();
     }
 
+    /*
+     * 所有demangle结果共用的节点, children已冻结, 不可修改.
+     */
+    private static final class SharedNodes {
+        static final SwiftSymbol stdlibModule = frozen(new SwiftSymbol(Kind.module, new SafeArrayList<>(), new Contents("Swift")));
+        static final SwiftSymbol objcModule = frozen(new SwiftSymbol(Kind.module, new SafeArrayList<>(), new Contents("__C")));
+        static final SwiftSymbol cModule = frozen(new SwiftSymbol(Kind.module, new SafeArrayList<>(), new Contents("__C_Synthesized")));
+        static final Map<String, SwiftSymbol> nominals = new ConcurrentHashMap<>();
+
+        private static SwiftSymbol frozen(SwiftSymbol symbol) {
+            ((SafeArrayList<SwiftSymbol>) symbol.children).freeze();
+            return symbol;
+        }
+    }
+
+    /*
+     * 共享的标准库类型节点, 用于标准替换(Si, SS, Sa ...).
+     */
+    static SwiftSymbol sharedStdlibType(Kind kind, String name) {
+        SwiftSymbol nominal = SharedNodes.nominals.computeIfAbsent(kind.name() + "." + name, key -> {
+            SwiftSymbol identifier = SharedNodes.frozen(new SwiftSymbol(Kind.identifier, new SafeArrayList<>(), new Contents(name)));
+            return SharedNodes.frozen(new SwiftSymbol(kind, Utility.CreateLists(SharedNodes.stdlibModule, identifier), null));
+        });
+        return SharedNodes.frozen(new SwiftSymbol(Kind.type, Utility.CreateLists(nominal), null));
+    }
+
+    /*
+     * 共享的module节点: "Swift", "__C", "__C_Synthesized".
+     */
+    static SwiftSymbol sharedModule(String name) {
+        switch (name) {
+            case "Swift": return SharedNodes.stdlibModule;
+            case "__C": return SharedNodes.objcModule;
+            case "__C_Synthesized": return SharedNodes.cModule;
+            default: return new SwiftSymbol(Kind.module, new SafeArrayList<>(), new Contents(name));
+        }
+    }
+
     public static SwiftSymbol SwiftSymbolWithBuiltinType(Kind swiftBuiltinType, String name) {
         return new SwiftSymbol(Kind.type, Utility.CreateLists(new SwiftSymbol(swiftBuiltinType, Utility.CreateLists(), new Contents(name))), null);
     }
 
+    /*
+     * 返回新的节点, 不修改当前节点的children(可能是共享节点).
+     */
     public SwiftSymbol changeChild(SwiftSymbol newChild, int atIndex) {
         if (atIndex < 0 || atIndex >= children.size()) return this;
 
-        List modifiedChildren = children;
+        List<SwiftSymbol> modifiedChildren = new SafeArrayList<>(children);
         if (newChild != null) {
             modifiedChildren.set(atIndex, newChild);
         } else {
@@ -726,9 +785,31 @@ public class SwiftSymbol {
         return new SwiftSymbol(kind, modifiedChildren, contents);
     }
 
-    public SwiftSymbol changeKind(Kind newKind, List additionalChildren) {
-        children.addAll(additionalChildren);
-        return new SwiftSymbol(newKind, children, contents);
+    public SwiftSymbol changeKind(Kind newKind, List<SwiftSymbol> additionalChildren) {
+        List<SwiftSymbol> newChildren = new SafeArrayList<>(children);
+        if (additionalChildren != null) newChildren.addAll(additionalChildren);
+        return new SwiftSymbol(newKind, newChildren, contents);
+    }
+
+    /*
+     * 冻结整棵树: 所有children变为不可修改, 之后可以在线程间只读共享(例如放进缓存).
+     * 已冻结的节点(包括共享的标准库节点)整棵子树都已冻结, 直接跳过.
+     */
+    public SwiftSymbol freeze() {
+        if (isFrozen()) return this;
+        for (SwiftSymbol child : children) {
+            if (child != null) child.freeze();
+        }
+        if (children instanceof SafeArrayList) {
+            ((SafeArrayList<SwiftSymbol>) children).freeze();
+        } else {
+            children = new SafeArrayList<>(children).freeze();
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return children instanceof SafeArrayList && ((SafeArrayList<SwiftSymbol>) children).isFrozen();
     }
 
     public String text() {
@@ -775,16 +856,60 @@ public class SwiftSymbol {
     }
 
     //output
+    // 每个线程复用一个printer, 打印嵌套符号时(重入)使用新的printer.
+    private static final ThreadLocal<SymbolPrinter> printers = ThreadLocal.withInitial(() -> new SymbolPrinter(SymbolPrinter.defaultOptions));
+
+    private static SymbolPrinter acquirePrinter(int options, StringBuilder output) {
+        SymbolPrinter printer = printers.get();
+        if (printer.busy) return new SymbolPrinter(options, output);
+        printer.busy = true;
+        printer.reset(options, output);
+        return printer;
+    }
+
+    private static void releasePrinter(SymbolPrinter printer) {
+        printer.reset(SymbolPrinter.defaultOptions, null);
+        printer.busy = false;
+    }
+
     public String print(@SymbolPrinter.SymbolPrintOptions int options) {
-        SymbolPrinter printer = new SymbolPrinter(options);
-        printer.printName(this, false);
-        return printer.target;
+        SymbolPrinter printer = acquirePrinter(options, null);
+        try {
+            printer.printName(this, false);
+            return printer.result();
+        } finally {
+            releasePrinter(printer);
+        }
+    }
+
+    /*
+     * 直接追加到output, 不生成中间的String.
+     */
+    public void print(@SymbolPrinter.SymbolPrintOptions int options, StringBuilder output) {
+        SymbolPrinter printer = acquirePrinter(options, output);
+        try {
+            printer.printName(this, false);
+        } finally {
+            releasePrinter(printer);
+        }
+    }
+
+    public void print(@SymbolPrinter.SymbolPrintOptions int options, Appendable output) throws IOException {
+        if (output instanceof StringBuilder) {
+            print(options, (StringBuilder) output);
+            return;
+        }
+        SymbolPrinter printer = acquirePrinter(options, null);
+        try {
+            printer.printName(this, false);
+            output.append(printer.target);
+        } finally {
+            releasePrinter(printer);
+        }
     }
 
     public String description() {
-        SymbolPrinter printer = new SymbolPrinter(SymbolPrinter.defaultOptions);
-        printer.printName(this, false);
-        return printer.target;
+        return print(SymbolPrinter.defaultOptions);
     }
 
 }
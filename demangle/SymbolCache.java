@@ -0,0 +1,357 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * 线程安全的demangle结果缓存, key为mangled字符串和打印选项, value为打印结果.
+ *
+ * 容量按字符数(key + value)计算. 淘汰用CLOCK: 命中只设置referenced标记, 不加锁;
+ * 插入时在锁内转动指针找淘汰对象. 准入用TinyLFU: 新条目的访问频率不高于被淘汰者时不插入,
+ * 这样大量只出现一次的符号不会把常用符号挤出去.
+ * 频率只在未命中和put时记录, 命中路径不写共享的sketch; 已在缓存里的热点由referenced标记保护.
+ */
+public final class SymbolCache {
+
+    public interface Loader {
+        /* 返回null表示不缓存 */
+        String load(String mangled, int options);
+    }
+
+    public interface Visitor {
+        void visit(String mangled, int options, String value);
+    }
+
+    private static final class Key {
+        final String mangled;
+        final int options;
+        final int hash;
+
+        Key(String mangled, int options) {
+            this.mangled = mangled;
+            this.options = options;
+            this.hash = mangled.hashCode() * 31 + options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return options == other.options && hash == other.hash && mangled.equals(other.mangled);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Node {
+        final Key key;
+        final String value;
+        final int weight;
+        volatile boolean referenced;
+
+        Node(Key key, String value) {
+            this.key = key;
+            this.value = value;
+            this.weight = key.mangled.length() + value.length();
+        }
+    }
+
+    private final long maxWeight;
+    private final ConcurrentHashMap<Key, Node> map = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+
+    // 以下字段只在lock内访问
+    private final Object lock = new Object();
+    private final ArrayDeque<Node> clock = new ArrayDeque<>();
+    private long weight;
+
+    // clear()时递增, 线程本地的缓存据此失效
+    private volatile int epoch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /*
+     * maxWeight为所有条目key和value的字符数之和的上限.
+     */
+    public SymbolCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        // 按平均每个条目64个字符估计条目数
+        this.sketch = new FrequencySketch((int) Math.min(maxWeight / 64, 1 << 24));
+    }
+
+    public String getIfPresent(String mangled, int options) {
+        Key key = new Key(mangled, options);
+        Node node = map.get(key);
+        if (node == null) {
+            sketch.increment(key.hash);
+            misses.increment();
+            return null;
+        }
+        hit(node);
+        return node.value;
+    }
+
+    /*
+     * 查找缓存, 没有时调用loader并尝试插入. 同一个key并发未命中时可能各自load一次.
+     */
+    public String get(String mangled, int options, Loader loader) {
+        Key key = new Key(mangled, options);
+        Node node = map.get(key);
+        if (node != null) {
+            hit(node);
+            return node.value;
+        }
+        sketch.increment(key.hash);
+        misses.increment();
+        long start = System.nanoTime();
+        String value = loader.load(mangled, options);
+        loadNanos.add(System.nanoTime() - start);
+        loads.increment();
+        if (value != null) {
+            value = insert(new Node(key, value));
+        }
+        return value;
+    }
+
+    public void put(String mangled, int options, String value) {
+        Key key = new Key(mangled, options);
+        sketch.increment(key.hash);
+        insert(new Node(key, value));
+    }
+
+    /*
+     * 线程本地缓存命中时抽样调用, 设置共享条目的referenced标记, 否则L1里的热点在CLOCK看来是冷的, 会被先淘汰.
+     */
+    void touch(String mangled, int options) {
+        Node node = map.get(new Key(mangled, options));
+        if (node != null && !node.referenced) node.referenced = true;
+    }
+
+    /*
+     * 遍历当前所有条目, 不加锁, 遍历期间的插入和淘汰不一定能看到.
+     */
+    public void forEach(Visitor visitor) {
+        for (Node node : map.values()) {
+            visitor.visit(node.key.mangled, node.key.options, node.value);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            map.clear();
+            clock.clear();
+            weight = 0;
+            epoch++;
+        }
+    }
+
+    int epoch() {
+        return epoch;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long weight() {
+        synchronized (lock) {
+            return weight;
+        }
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum(), loads.sum(), loadNanos.sum());
+    }
+
+    private void hit(Node node) {
+        hits.increment();
+        // 已经标记过就不再写, 热点条目不会反复弄脏cache line
+        if (!node.referenced) node.referenced = true;
+    }
+
+    private String insert(Node node) {
+        if (node.weight > maxWeight) {
+            rejections.increment();
+            return node.value;
+        }
+        synchronized (lock) {
+            Node existing = map.get(node.key);
+            if (existing != null) return existing.value;
+            while (weight + node.weight > maxWeight) {
+                Node victim = nextVictim();
+                if (sketch.frequency(node.key.hash) <= sketch.frequency(victim.key.hash)) {
+                    rejections.increment();
+                    return node.value;
+                }
+                clock.pollFirst();
+                map.remove(victim.key, victim);
+                weight -= victim.weight;
+                evictions.increment();
+            }
+            map.put(node.key, node);
+            clock.addLast(node);
+            weight += node.weight;
+        }
+        return node.value;
+    }
+
+    /*
+     * CLOCK: 指针处被访问过的条目清除标记后放到队尾, 第一个没被访问过的就是淘汰对象(留在队首).
+     */
+    private Node nextVictim() {
+        while (true) {
+            Node node = clock.peekFirst();
+            if (!node.referenced) return node;
+            node.referenced = false;
+            clock.pollFirst();
+            clock.addLast(node);
+        }
+    }
+
+    /*
+     * count-min sketch, 每个计数4 bit, 一个long放16个. 总增量到达sampleSize时所有计数减半,
+     * 让旧的热点逐渐老化. 并发更新不加锁, 丢失少量计数不影响准入判断.
+     */
+    private static final class FrequencySketch {
+        private static final long resetMask = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+            this.table = new long[size];
+            this.mask = size - 1;
+            this.sampleSize = size * 10;
+        }
+
+        void increment(int hash) {
+            int h = spread(hash);
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(index(h, i), (h >>> (i << 3)) & 15);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int h = spread(hash);
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int shift = ((h >>> (i << 3)) & 15) << 2;
+                frequency = Math.min(frequency, (int) ((table[index(h, i)] >>> shift) & 15));
+            }
+            return frequency;
+        }
+
+        private boolean incrementAt(int index, int slot) {
+            int shift = slot << 2;
+            long value = table[index];
+            if (((value >>> shift) & 15) == 15) return false;
+            table[index] = value + (1L << shift);
+            return true;
+        }
+
+        private synchronized void reset() {
+            if (additions < sampleSize) return;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & resetMask;
+            }
+            additions = additions >>> 1;
+        }
+
+        private int index(int h, int i) {
+            int x = h * (0x9E3779B9 + (i << 1) + 1);
+            return (x ^ (x >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x45d9f3b;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long rejections;
+        private final long loads;
+        private final long loadNanos;
+
+        Stats(long hits, long misses, long evictions, long rejections, long loads, long loadNanos) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.loads = loads;
+            this.loadNanos = loadNanos;
+        }
+
+        public long hits() {
+            return hits;
+        }
+
+        public long misses() {
+            return misses;
+        }
+
+        public long evictions() {
+            return evictions;
+        }
+
+        /* 因为频率不够或者太大而没有插入的条目数 */
+        public long rejections() {
+            return rejections;
+        }
+
+        public long loads() {
+            return loads;
+        }
+
+        public long totalLoadNanos() {
+            return loadNanos;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public double averageLoadNanos() {
+            return loads == 0 ? 0 : (double) loadNanos / loads;
+        }
+
+        @Override
+        public String toString() {
+            return "hits " + hits + ", misses " + misses + ", hitRate " + String.format("%.3f", hitRate())
+                    + ", evictions " + evictions + ", rejections " + rejections
+                    + ", loads " + loads + ", averageLoadNanos " + String.format("%.0f", averageLoadNanos());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * 离线生成的只读符号字典: 一个app版本的全部mangled符号和它们按固定options打印的结果.
+ *
+ * 条目按key的64位hash排序, 再按hash高位分桶, 桶表记录每个桶的第一个条目.
+ * 查找: 算hash -> 桶 -> 在桶内比较hash和key的字节, 平均O(1), 全部读MappedByteBuffer, 不解析不分配(除了返回的value).
+ *
+ * 格式(大端):
+ *   magic, version, options, count, bucketBits
+ *   buckets: int[(1 << bucketBits) + 1], 条目下标
+ *   entries: count个 {long hash, int keyOffset, int keyLength, int valueOffset, int valueLength}
+ *   data: key和value的UTF-8字节, offset相对于data开始
+ */
+public final class SymbolDictionary {
+
+    private static final int magic = 0x4D534444; // "MSDD"
+    private static final int version = 1;
+    private static final int headerSize = 20;
+    private static final int entrySize = 24;
+
+    private final ByteBuffer buffer;
+    private final int options;
+    private final int count;
+    private final int bucketBits;
+    private final int bucketsOffset;
+    private final int entriesOffset;
+    private final int dataOffset;
+
+    private SymbolDictionary(ByteBuffer buffer, Path file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < headerSize || buffer.getInt(0) != magic || buffer.getInt(4) != version) {
+            throw new IOException("not a symbol dictionary: " + file);
+        }
+        this.options = buffer.getInt(8);
+        this.count = buffer.getInt(12);
+        this.bucketBits = buffer.getInt(16);
+        if (count < 0 || bucketBits < 0 || bucketBits > 30) {
+            throw new IOException("corrupt symbol dictionary: " + file);
+        }
+        this.bucketsOffset = headerSize;
+        this.entriesOffset = bucketsOffset + ((1 << bucketBits) + 1) * 4;
+        this.dataOffset = entriesOffset + count * entrySize;
+        if (dataOffset > buffer.capacity()) {
+            throw new IOException("truncated symbol dictionary: " + file);
+        }
+    }
+
+    /*
+     * 映射字典文件. 文件内容在映射期间不能被修改.
+     */
+    public static SymbolDictionary open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SymbolDictionary(buffer, file);
+        }
+    }
+
+    /* 字典里的value是按这个options打印的 */
+    public int options() {
+        return options;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String lookup(String mangled) {
+        return lookup(mangled, 0, mangled.length());
+    }
+
+    /*
+     * 查找text[start, end), 不在字典里时返回null.
+     */
+    public String lookup(CharSequence text, int start, int end) {
+        long hash = hash(text, start, end);
+        int bucket = (int) (hash >>> (64 - bucketBits)) & ((1 << bucketBits) - 1);
+        int from = buffer.getInt(bucketsOffset + bucket * 4);
+        int to = buffer.getInt(bucketsOffset + (bucket + 1) * 4);
+        for (int i = from; i < to; i++) {
+            int entry = entriesOffset + i * entrySize;
+            long entryHash = buffer.getLong(entry);
+            if (entryHash != hash) {
+                if (Long.compareUnsigned(entryHash, hash) > 0) break;
+                continue;
+            }
+            int keyOffset = dataOffset + buffer.getInt(entry + 8);
+            int keyLength = buffer.getInt(entry + 12);
+            if (matches(keyOffset, keyLength, text, start, end)) {
+                return decode(dataOffset + buffer.getInt(entry + 16), buffer.getInt(entry + 20));
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(int offset, int length, CharSequence text, int start, int end) {
+        if (length < end - start) return false;
+        int j = offset;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                // 非ASCII的key很少, 编码后再比较
+                byte[] bytes = text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8);
+                if (bytes.length != length) return false;
+                for (int k = 0; k < length; k++) {
+                    if (buffer.get(offset + k) != bytes[k]) return false;
+                }
+                return true;
+            }
+            if (buffer.get(j++) != c) return false;
+        }
+        return j == offset + length;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * FNV-1a, 按char计算, 查找时不需要先编码成UTF-8.
+     */
+    private static long hash(CharSequence text, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        h *= 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 32);
+    }
+
+    /*
+     * 并行demangle所有符号, 把能解析的写成字典文件. 返回写入的条目数.
+     */
+    public static int build(Collection<String> symbols, @SymbolPrinter.SymbolPrintOptions int options, Path file) throws IOException {
+        List<String[]> pairs = symbols.parallelStream()
+                .distinct()
+                .map(symbol -> {
+                    DemangleResult result = MMSwiftDemangle.tryParseMangledSwiftSymbol(symbol);
+                    return result.isSuccess() ? new String[]{symbol, result.symbol().print(options)} : null;
+                })
+                .filter(pair -> pair != null)
+                .collect(Collectors.toList());
+
+        int count = pairs.size();
+        long[] hashes = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = hash(pairs.get(i)[0], 0, pairs.get(i)[0].length());
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> hashes[i], Long::compareUnsigned));
+
+        int bucketBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(count, 1)));
+        int bucketCount = 1 << bucketBits;
+        int[] buckets = new int[bucketCount + 1];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        List<int[]> locations = new ArrayList<>(count);
+        int next = 0;
+        for (int k = 0; k < count; k++) {
+            int i = order[k];
+            int bucket = (int) (hashes[i] >>> (64 - bucketBits));
+            while (next <= bucket) buckets[next++] = k;
+            byte[] key = pairs.get(i)[0].getBytes(StandardCharsets.UTF_8);
+            byte[] value = pairs.get(i)[1].getBytes(StandardCharsets.UTF_8);
+            int keyOffset = data.size();
+            data.write(key, 0, key.length);
+            int valueOffset = data.size();
+            data.write(value, 0, value.length);
+            locations.add(new int[]{keyOffset, key.length, valueOffset, value.length});
+        }
+        while (next <= bucketCount) buckets[next++] = count;
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(magic);
+                out.writeInt(version);
+                out.writeInt(options);
+                out.writeInt(count);
+                out.writeInt(bucketBits);
+                for (int bucket : buckets) {
+                    out.writeInt(bucket);
+                }
+                for (int k = 0; k < count; k++) {
+                    int[] location = locations.get(k);
+                    out.writeLong(hashes[order[k]]);
+                    out.writeInt(location[0]);
+                    out.writeInt(location[1]);
+                    out.writeInt(location[2]);
+                    out.writeInt(location[3]);
+                }
+                data.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+ * 在任意文本里查找Swift mangled符号, 不要求符号前有'!'或者以空白分隔.
+ * 支持的前缀: $s, $S, _$s, _$S, _T0, _Tt. 结果通过SpanConsumer按[start, end)报告.
+ *
+ * 所有前缀都以'$'或'_'开头, 所以先找这两个字节: byte[]一次读8个字节(SWAR),
+ * 剩下不足8个字节和CharSequence走逐个字符的扫描.
+ */
+public final class SymbolFinder {
+
+    public interface SpanConsumer {
+        void accept(int start, int end);
+    }
+
+    private static final VarHandle longs = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ones = 0x0101010101010101L;
+    private static final long lows = 0x7F7F7F7F7F7F7F7FL;
+    private static final long dollars = ones * '$';
+    private static final long underscores = ones * '_';
+
+    // 符号里可能出现的ASCII字符: 字母, 数字, '_', '$', '.'; 非ASCII字符也算(标识符里的unicode)
+    private static final boolean[] symbolChars = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) symbolChars[c] = true;
+        for (char c = 'a'; c <= 'z'; c++) symbolChars[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) symbolChars[c] = true;
+        symbolChars['_'] = true;
+        symbolChars['$'] = true;
+        symbolChars['.'] = true;
+    }
+
+    private SymbolFinder() {
+    }
+
+    /*
+     * 报告bytes[offset, offset + length)中的所有符号, span是数组下标. 返回找到的个数.
+     */
+    public static int find(byte[] bytes, int offset, int length, SpanConsumer consumer) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bytes.length);
+        }
+        int end = offset + length;
+        int count = 0;
+        int i = offset;
+        while (i < end) {
+            i = nextCandidate(bytes, i, end);
+            if (i >= end) break;
+            int prefix = prefixLength(bytes, offset, i, end);
+            if (prefix == 0) {
+                i++;
+                continue;
+            }
+            int stop = symbolEnd(bytes, i + prefix, end);
+            if (stop > i + prefix) {
+                consumer.accept(i, stop);
+                count++;
+            }
+            i = Math.max(stop, i + 1);
+        }
+        return count;
+    }
+
+    /*
+     * 报告text[start, end)中的所有符号, span是text的下标. 返回找到的个数.
+     */
+    public static int find(CharSequence text, int start, int end, SpanConsumer consumer) {
+        if (start < 0 || start > end || end > text.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+        }
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c != '$' && c != '_') {
+                i++;
+                continue;
+            }
+            int prefix = prefixLength(text, start, i, end);
+            if (prefix == 0) {
+                i++;
+                continue;
+            }
+            int stop = symbolEnd(text, i + prefix, end);
+            if (stop > i + prefix) {
+                consumer.accept(i, stop);
+                count++;
+            }
+            i = Math.max(stop, i + 1);
+        }
+        return count;
+    }
+
+    public static int find(CharSequence text, SpanConsumer consumer) {
+        return find(text, 0, text.length(), consumer);
+    }
+
+    /*
+     * 下一个'$'或'_'的位置, 没有则返回end.
+     */
+    private static int nextCandidate(byte[] bytes, int i, int end) {
+        while (i + 8 <= end) {
+            long word = (long) longs.get(bytes, i);
+            long found = zeroBytes(word ^ dollars) | zeroBytes(word ^ underscores);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += 8;
+        }
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '$' || b == '_') return i;
+            i++;
+        }
+        return end;
+    }
+
+    /*
+     * 值为0的字节对应位置置0x80, 其他为0. 没有跨字节的进位, 所以结果是精确的.
+     */
+    private static long zeroBytes(long word) {
+        long t = (word & lows) + lows;
+        return ~(t | word | lows);
+    }
+
+    /*
+     * i处是否是前缀的开始, 返回前缀长度, 不是则返回0.
+     * 前面紧挨着符号字符时(例如标识符中间的"_T0")不算.
+     */
+    private static int prefixLength(byte[] bytes, int from, int i, int end) {
+        if (i > from && isSymbolChar(bytes[i - 1])) return 0;
+        int p = i;
+        if (bytes[p] == '_') {
+            if (p + 2 < end && bytes[p + 1] == 'T' && (bytes[p + 2] == '0' || bytes[p + 2] == 't')) return 3;
+            p++;
+        }
+        if (p + 1 < end && bytes[p] == '$' && (bytes[p + 1] == 's' || bytes[p + 1] == 'S')) return p + 2 - i;
+        return 0;
+    }
+
+    private static int prefixLength(CharSequence text, int from, int i, int end) {
+        if (i > from && isSymbolChar(text.charAt(i - 1))) return 0;
+        int p = i;
+        if (text.charAt(p) == '_') {
+            if (p + 2 < end && text.charAt(p + 1) == 'T' && (text.charAt(p + 2) == '0' || text.charAt(p + 2) == 't')) return 3;
+            p++;
+        }
+        if (p + 1 < end && text.charAt(p) == '$' && (text.charAt(p + 1) == 's' || text.charAt(p + 1) == 'S')) return p + 2 - i;
+        return 0;
+    }
+
+    /*
+     * 符号的结束位置, 末尾的'.'是句号之类的标点, 不算在符号里.
+     */
+    private static int symbolEnd(byte[] bytes, int i, int end) {
+        while (i < end && isSymbolChar(bytes[i])) i++;
+        while (bytes[i - 1] == '.') i--;
+        return i;
+    }
+
+    private static int symbolEnd(CharSequence text, int i, int end) {
+        while (i < end && isSymbolChar(text.charAt(i))) i++;
+        while (text.charAt(i - 1) == '.') i--;
+        return i;
+    }
+
+    private static boolean isSymbolChar(byte b) {
+        return b < 0 || symbolChars[b];
+    }
+
+    private static boolean isSymbolChar(char c) {
+        return c >= 128 || symbolChars[c];
+    }
+}
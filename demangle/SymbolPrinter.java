@@ -56,23 +56,50 @@ public class SymbolPrinter {
 
     private @SymbolPrintOptions
     int options;
-    String target;
+    // 输出位置, 默认是printer自己的buffer, 也可以是调用者的StringBuilder
+    StringBuilder target;
+    private final StringBuilder buffer = new StringBuilder();
     boolean specializationPrefixPrinted;
+    // 被SwiftSymbol的线程缓存借出时为true
+    boolean busy;
 
     public SymbolPrinter(@SymbolPrintOptions int options) {
+        this(options, null);
+    }
+
+    /*
+     * 直接写入output, output为null时写入printer自己的buffer.
+     */
+    public SymbolPrinter(@SymbolPrintOptions int options, StringBuilder output) {
+        reset(options, output);
+    }
+
+    /*
+     * 复用printer: 清空buffer, 重新设置options和输出位置.
+     */
+    public void reset(@SymbolPrintOptions int options, StringBuilder output) {
         this.options = options;
-        this.target = "";
         this.specializationPrefixPrinted = false;
-        int i = SYNTHESIZESUGARONTYPES;
+        // 打印过很长的符号后不要一直占着大数组
+        buffer.setLength(0);
+        if (buffer.capacity() > 4096) buffer.trimToSize();
+        this.target = output != null ? output : buffer;
+    }
+
+    /*
+     * 打印到printer自己的buffer时的结果.
+     */
+    public String result() {
+        return target.toString();
     }
 
     public SwiftSymbol printOptional(SwiftSymbol optional, String prefix, String suffix, boolean asPrefixContext) {
         if (optional == null) return null;
         if (prefix == null) prefix = "";
         if (suffix == null) suffix = "";
-        target += prefix.isEmpty() ? "" : prefix;
+        target.append(prefix.isEmpty() ? "" : prefix);
         SwiftSymbol r = printName(optional, false);
-        target += suffix.isEmpty() ? "" : suffix;
+        target.append(suffix.isEmpty() ? "" : suffix);
         return r;
     }
 
@@ -94,16 +121,16 @@ public class SymbolPrinter {
         if (prefix == null) prefix = "";
         if (suffix == null) suffix = "";
 //        if (separator == null) separator = "";
-        target += prefix;
+        target.append(prefix);
         for (SwiftSymbol c : names) {
             if (separator != null && !isFirst) {
-                target += separator;
+                target.append(separator);
             } else {
                 isFirst = false;
             }
             printName(c, false);
         }
-        target += suffix;
+        target.append(suffix);
     }
 
     public void printChildren(SwiftSymbol ofName, String prefix, String suffix, String separator) {
@@ -119,908 +146,778 @@ public class SymbolPrinter {
         }
     }
 
+    /*
+     * 打印单个Kind的handler, 返回值与printName相同.
+     */
+    @FunctionalInterface
+    public interface PrintHandler {
+        SwiftSymbol print(SymbolPrinter printer, SwiftSymbol name, boolean asPrefixContext);
+    }
+
+    /*
+     * 以Kind.ordinal()为下标的默认handler, 没有handler的Kind什么都不打印.
+     * 原来的printName是一个近千行的switch, 拆开后每个handler都足够小, 可以被JIT内联.
+     */
+    private static final PrintHandler[] defaultHandlers = new PrintHandler[SwiftSymbol.Kind.values().length];
+
+    // 默认与defaultHandlers相同, 第一次setHandler时复制
+    private PrintHandler[] handlers = defaultHandlers;
+
+    public static PrintHandler defaultHandler(SwiftSymbol.Kind kind) {
+        return defaultHandlers[kind.ordinal()];
+    }
+
+    /*
+     * 只对当前printer生效, handler为null时恢复默认.
+     */
+    public void setHandler(SwiftSymbol.Kind kind, PrintHandler handler) {
+        if (handlers == defaultHandlers) {
+            handlers = defaultHandlers.clone();
+        }
+        handlers[kind.ordinal()] = handler != null ? handler : defaultHandlers[kind.ordinal()];
+    }
+
     public SwiftSymbol printName(SwiftSymbol name, boolean asPrefixContext) {
-        switch (name.kind) {
-            case theStatic:
-                printFirstChild(name, "static ", null, false);
-                break;
-            case curryThunk:
-                printFirstChild(name, "curry thunk of ", null, false);
-                break;
-            case dispatchThunk:
-                printFirstChild(name, "dispatch thunk of ", null, false);
-                break;
-            case methodDescriptor:
-                printFirstChild(name, "method descriptor for ", null, false);
-                break;
-            case methodLookupFunction:
-                printFirstChild(name, "method lookup function for ", null, false);
-                break;
-            case outlinedBridgedMethod:
-                target += "outlined bridged method (" + (name.text().isEmpty() ? "" : name.text()) + ") of ";
-                break;
-            case outlinedCopy:
-                printFirstChild(name, "outlined copy of ", null, false);
-                break;
-            case outlinedConsume:
-                printFirstChild(name, "outlined consume of ", null, false);
-                break;
-            case outlinedRetain:
-                printFirstChild(name, "outlined retain of ", null, false);
-                break;
-            case outlinedRelease:
-                printFirstChild(name, "outlined release of ", null, false);
-                break;
-            case outlinedInitializeWithTake:
-                printFirstChild(name, "outlined init with take of ", null, false);
-                break;
-            case outlinedInitializeWithCopy:
-                printFirstChild(name, "outlined init with copy of ", null, false);
-                break;
-            case outlinedAssignWithTake:
-                printFirstChild(name, "outlined assign with take of ", null, false);
-                break;
-            case outlinedAssignWithCopy: {
-                int index = name.children.get(0).index();
-                target += "outlined variable #";
-                target += index;
-                target += " of ";
-            }
-            break;
-            case outlinedDestroy:
-                target += "outlined destroy of ";
-                break;
-            case outlinedVariable:
-                target += ("outlined variable #" + (name.index() > 0 ? name.index() : 0) + " of ");
-                break;
-            case directness: {
-                SwiftSymbol.Directness dir = SwiftSymbol.Directness.DirectnessWithValue(name.index());
-                if (dir != null) {
-                    target += dir.description();
-                }
-            }
-            break;
-            case anonymousContext: {
-                if ((options & QUALIFYENTITIES) == QUALIFYENTITIES && (options & DISPLAYEXTENSIONCONTEXTS) == DISPLAYEXTENSIONCONTEXTS) {
-                    printOptional(name.children.get(1), null, null, false);
-                    String text = "";
-                    if (name.children.get(0).text() != null) {
-                        text = name.children.get(0).text();
-                    }
-                    target += ".(unknown context at " + text + ")";
-                    SwiftSymbol second = name.children.get(2);
-                    if (second != null && !second.children.isEmpty()) {
-                        target += "<";
-                        printName(second, false);
-                        target += ">";
-                    }
-                }
-            }
-            break;
-            case extension: {
-                if ((options & QUALIFYENTITIES) == QUALIFYENTITIES && (options & DISPLAYEXTENSIONCONTEXTS) == DISPLAYEXTENSIONCONTEXTS) {
-                    printFirstChild(name, "(extension in ", "):", true);
-                }
-                printSequence(Utility.slice(name.children, 1, 3), null, null, null);
-            }
-            break;
-            case variable:
-                return printEntity(name, asPrefixContext, TypePrinting.withColon, true, null, 0, null);
-            case function:
-            case boundGenericFunction:
-                return printEntity(name, asPrefixContext, TypePrinting.functionStyle, true, null, 0, null);
-            case subscript:
-                return printEntity(name, asPrefixContext, TypePrinting.functionStyle, true, null, 0, "subscript");
-            case genericTypeParamDecl:
-            case theClass:
-            case structure:
-            case theEnum:
-            case protocol:
-            case typeAlias:
-            case otherNominalType:
-                return printEntity(name, asPrefixContext, TypePrinting.noType, true, null, 0, null);
-            case explicitClosure:
-                return printEntity(name, asPrefixContext, ((options & SHOWFUNCTIONARGUMENTTYPES) == SHOWFUNCTIONARGUMENTTYPES) ? TypePrinting.functionStyle : TypePrinting.noType, false, "closure #", (name.children.get(1).index()) + 1, null);
-            case implicitClosure:
-                return printEntity(name, asPrefixContext, ((options & SHOWFUNCTIONARGUMENTTYPES) == SHOWFUNCTIONARGUMENTTYPES) ? TypePrinting.functionStyle : TypePrinting.noType, false, "implicit closure #", (name.children.get(1).index()) + 1, null);
-            case global:
-                printChildren(name, null, null, null);
-                break;
-            case suffix: {
-                if ((options & DISPLAYUNMANGLEDSUFFIX) == DISPLAYUNMANGLEDSUFFIX) {
-                    target += " with unmangled suffix ";
-                    quotedString(name.text().isEmpty() ? "" : name.text());
-                }
-            }
-            break;
-            case initializer:
-                return printEntity(name, asPrefixContext, TypePrinting.noType, false, "variable initialization expression", 0, null);
-            case defaultArgumentInitializer:
-                return printEntity(name, asPrefixContext, TypePrinting.noType, false, ("default argument " + String.valueOf(name.children.get(1).index())), 0, null);
-            case declContext:
-            case type:
-            case typeMangling:
-                printFirstChild(name, "", "", false);
-                break;
-            case localDeclName:
-                printOptional(name.children.get(1), null, (" #" + ((name.children.get(0).index()) + 1)), false);
-                break;
-            case privateDeclName: {
-                printOptional(name.children.get(1), (options & SHOWPRIVATEDISCRIMINATORS) == SHOWPRIVATEDISCRIMINATORS ? "(" : "", "", false);
-                String t_i = name.children.size() > 1 ? " " : "(";
-                String t_j = !name.children.get(0).text().isEmpty() ? name.children.get(0).text() : "";
-                target += (options & SHOWPRIVATEDISCRIMINATORS) == SHOWPRIVATEDISCRIMINATORS ? (t_i + "in " + t_j + ")") : "";
-            }
-            break;
-            case relatedEntityDeclName:
-                printFirstChild(name, ("related decl '" + (!name.text().isEmpty() ? name.text() : "") + "' for "), "", false);
-                break;
-            case module:
-                if ((options & DISPLAYMODULENAMES) == DISPLAYMODULENAMES) {
-                    target += (!name.text().isEmpty() ? name.text() : "");
-                }
-                break;
-            case identifier:
-                target += (!name.text().isEmpty() ? name.text() : "");
-                break;
-            case index:
-                target += (name.index() < 0) ? 0 : name.index();
-                break;
-            case noEscapeFunctionType:
-            case functionType:
-            case uncurriedFunctionType:
-                printFunctionType(null, name);
-                break;
-            case escapingAutoClosureType:
-            case autoClosureType: {
-                target += "@autoclosure ";
-                printFunctionType(null, name);
-            }
-            break;
-            case thinFunctionType: {
-                target += "@convention(thin) ";
-                printFunctionType(null, name);
-            }
-            break;
-            case argumentTuple: {
-                printFunctionParameters(null, name, (options & SHOWFUNCTIONARGUMENTTYPES) == SHOWFUNCTIONARGUMENTTYPES);
-            }
-            break;
-            case tuple:
-                printChildren(name, "(", ")", ", ");
-                break;
-            case tupleElement: {
-                SwiftSymbol first = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.tupleElementName);
-                if (first != null) {
-                    target += (!first.text().isEmpty() ? first.text() : "") + ": ";
-                }
+        PrintHandler handler = handlers[name.kind.ordinal()];
+        if (handler == null) return null;
+        return handler.print(this, name, asPrefixContext);
+    }
 
-                SwiftSymbol type = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.type);
-                if (type == null) {
-                    break;
-                }
-                printName(type, false);
-                SwiftSymbol last = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.variadicMarker);
-                if (last != null) {
-                    target += "...";
-                }
+    private static void on(PrintHandler handler, SwiftSymbol.Kind... kinds) {
+        for (SwiftSymbol.Kind kind : kinds) {
+            defaultHandlers[kind.ordinal()] = handler;
+        }
+    }
 
-            }
-            break;
-            case tupleElementName:
-                target += (!name.text().isEmpty() ? name.text() : "") + ": ";
-                break;
-            case returnType: {
-                target += " -> ";
-                if (name.children.isEmpty() && !name.text().isEmpty()) {
-                    target += name.text();
-                } else {
-                    printChildren(name, null, null, null);
-                }
-            }
-            break;
-            case retroactiveConformance: {
-                if (name.children.size() == 2) {
-                    printChildren(name, "retroactive @ ", null, null);
-                }
-            }
-            break;
-            case weak:
-                printFirstChild(name, "weak ", "", false);
-                break;
-            case unowned:
-                printFirstChild(name, "unowned ", "", false);
-                break;
-            case unmanaged:
-                printFirstChild(name, "unowned(unsafe) ", "", false);
-                break;
-            case inOut:
-                printFirstChild(name, "inout ", "", false);
-                break;
-            case shared:
-                printFirstChild(name, "__shared ", "", false);
-                break;
-            case owned:
-                printFirstChild(name, "__owned ", "", false);
-                break;
-            case nonObjCAttribute:
-                target += "@nonobjc ";
-                break;
-            case objCAttribute:
-                target += "@objc ";
-                break;
-            case directMethodReferenceAttribute:
-                target += "super ";
-                break;
-            case dynamicAttribute:
-                target += "dynamic ";
-                break;
-            case vTableAttribute:
-                target += "override ";
-            case functionSignatureSpecialization:
-                printSpecializationPrefix(name, "function signature specialization", "");
-                break;
-            case genericPartialSpecialization:
-                printSpecializationPrefix(name, "generic partial specialization", "Signature = ");
-                break;
-            case genericPartialSpecializationNotReAbstracted:
-                printSpecializationPrefix(name, "generic not re-abstracted partial specialization", "Signature = ");
-            case genericSpecialization:
-                printSpecializationPrefix(name, "generic specialization", "");
-                break;
-            case genericSpecializationNotReAbstracted:
-                printSpecializationPrefix(name, "generic not re-abstracted specialization", "");
-                break;
-            case specializationIsFragile:
-                target += "preserving fragile attribute";
-                break;
-            case genericSpecializationParam: {
-                printFirstChild(name, "", "", false);
-                printOptional(name.children.get(1), " with ", "", false);
-                List<SwiftSymbol> subList = Utility.slice(name.children, 2, name.children.size());
-                for (SwiftSymbol s : subList) {
-                    target += " and ";
-                    printName(s, false);
-                }
-            }
-            break;
-            case functionSignatureSpecializationParam: {
-                int index = name.index() > 0 ? name.index() : 0;
-                target += "Arg[" + index + "] = ";
-                int idx = printFunctionSigSpecializationParam(name, 0);
-                while (idx < name.children.size()) {
-                    target += " and ";
-                    idx = printFunctionSigSpecializationParam(name, idx);
-                }
-            }
-            break;
-            case functionSignatureSpecializationParamPayload:
-                try {
-                    String desc = MMSwiftDemangle.parsedMangledSwiftSymbol(name.text()).description();
-                    target += (desc.isEmpty() ? "" : desc);
-                } catch (Exception exception) {
+    private static PrintHandler firstChild(String prefix, String suffix) {
+        return (p, name, asPrefixContext) -> {
+            p.printFirstChild(name, prefix, suffix, false);
+            return null;
+        };
+    }
 
-                }
-                break;
-            case functionSignatureSpecializationParamKind: {
-                int raw = name.index() > 0 ? name.index() : 0;
-                SwiftSymbol.FunctionSigSpecializationParamKind kind = SwiftSymbol.FunctionSigSpecializationParamKind.paramKind(raw);
-                if (kind != null) {
-                    target += kind.description();
-                } else {
-                    SafeArrayList<SwiftSymbol.FunctionSigSpecializationParamKind> kinds = new SafeArrayList();
-                    kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.existentialToGeneric);
-                    kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.dead);
-                    kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.ownedToGuaranteed);
-                    kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.guaranteedToOwned);
-                    kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.sroa);
-                    String sep = " and ";
-
-                    SafeArrayList<String> newList = new SafeArrayList();
-                    for (SwiftSymbol.FunctionSigSpecializationParamKind kind_ : kinds) {
-                        if ((raw & kind_.getValue()) == kind_.getValue()) {
-                            if (!kind_.description().isEmpty()) newList.add(kind_.description());
-                        }
-                    }
-                    for (int i = 0; i < newList.size(); i++) {
-                        target += newList.get(i);
-                        if (i < newList.size() - 1) {
-                            target += sep;
-                        }
-                    }
-                }
-            }
-            break;
-            case specializationPassID:
-            case number: {
-                target += name.index() > 0 ? name.index() : 0;
-            }
-            break;
-            case builtinTypeName: {
-                target += !name.text().isEmpty() ? name.text() : "";
-            }
-            break;
-            case infixOperator: {
-                target += !name.text().isEmpty() ? name.text() : "";
-                target += " infix";
-            }
-            break;
-            case prefixOperator: {
-                target += !name.text().isEmpty() ? name.text() : "";
-                target += " prefix";
-            }
-            break;
-            case postfixOperator: {
-                target += !name.text().isEmpty() ? name.text() : "";
-                target += " postfix";
-            }
-            break;
-            case lazyProtocolWitnessTableAccessor: {
-                printOptional(name.children.get(0), "lazy protocol witness table accessor for type ", null, false);
-                printOptional(name.children.get(1), " and conformance ", null, false);
-            }
-            break;
-            case lazyProtocolWitnessTableCacheVariable: {
-                printOptional(name.children.get(0), "lazy protocol witness table cache variable for type ", null, false);
-                printOptional(name.children.get(1), " and conformance ", "", false);
-            }
-            break;
-            case protocolWitnessTableAccessor:
-                printFirstChild(name, "protocol witness table accessor for ", "", false);
-                break;
-            case protocolWitnessTable:
-                printFirstChild(name, "protocol witness table for ", "", false);
-                break;
-            case protocolWitnessTablePattern:
-                printFirstChild(name, "protocol witness table pattern for ", "", false);
-                break;
-            case genericProtocolWitnessTable:
-                printFirstChild(name, "generic protocol witness table for ", "", false);
-                break;
-            case genericProtocolWitnessTableInstantiationFunction:
-                printFirstChild(name, "instantiation function for generic protocol witness table for ", "", false);
-                break;
-            case resilientProtocolWitnessTable:
-                target += "resilient protocol witness table for ";
-                printFirstChild(name, "", "", false);
-                break;
-            case vTableThunk: {
-                printOptional(name.children.get(1), "vtable thunk for ", "", false);
-                printOptional(name.children.get(0), " dispatching to ", "", false);
-            }
-            break;
-            case protocolWitness: {
-                printOptional(name.children.get(1), "protocol witness for ", "", false);
-                printOptional(name.children.get(0), " in conformance ", "", false);
-            }
-            break;
-            case partialApplyForwarder: {
-                String text = (options & SHORTENPARTIALAPPLY) == SHORTENPARTIALAPPLY ? "" : " forwarder";
-                target += "partial apply" + text;
-                printFirstChild(name, " for ", "", false);
-            }
-            break;
-            case partialApplyObjCForwarder: {
-                String text = (options & SHORTENPARTIALAPPLY) == SHORTENPARTIALAPPLY ? "" : " ObjC forwarder";
-                target += "partial apply" + text;
-                printFirstChild(name, " for ", "", false);
-            }
-            break;
-            case keyPathGetterThunkHelper: {
-                printFirstChild(name, "key path getter for ", " : ", false);
-                printOptional(name.children.get(1), "", "", false);
-                printOptional(name.children.get(2), "", "", false);
-            }
-            break;
-            case keyPathSetterThunkHelper: {
-                printFirstChild(name, "key path setter for ", " : ", false);
-                printOptional(name.children.get(1), "", "", false);
-                printOptional(name.children.get(2), "", "", false);
-            }
-            break;
-            case keyPathEqualsThunkHelper:
-            case keyPathHashThunkHelper: {
-                String text = name.kind == SwiftSymbol.Kind.keyPathEqualsThunkHelper ? "equality" : "hash";
-                target += "key path index " + text + " operator for ";
-                boolean dropLast = false;
-                SwiftSymbol last = name.children.get(name.children.size() - 1);
-                if (last != null && last.kind == SwiftSymbol.Kind.dependentGenericSignature) {
-                    printName(last, false);
-                    dropLast = true;
-                }
-                List newList = name.children;
-                if (dropLast) {
-                    newList = Utility.dropLast(name.children);
-                }
-                printSequence(newList, "(", ")", ", ");
-            }
-            break;
-            case fieldOffset: {
-                printFirstChild(name, "", "", false);
-                printOptional(name.children.get(1), "field offset for ", "", true);
-            }
-            break;
-            case enumCase: {
-                target += "enum case for ";
-                printFirstChild(name, "", " : ", false);
-            }
-            break;
-            case reabstractionThunk:
-            case reabstractionThunkHelper: {
-                if ((options & SHORTENTHUNK) == SHORTENTHUNK) {
-                    printOptional(name.children.get(name.children.size() - 2), "thunk for ", null, false);
-                    break;
-                }
-                target += "reabstraction thunk ";
-                target += name.kind == SwiftSymbol.Kind.reabstractionThunkHelper ? "helper " : "";
-                SwiftSymbol first = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.dependentGenericSignature);
-                if (first != null) {
-                    printOptional(first, "", " ", false);
-                }
-                printOptional(name.children.get(name.children.size() - 2), "from ", "", false);
-                printOptional(name.children.get(name.children.size() - 1), " to ", "", false);
+    private static PrintHandler literal(String text) {
+        return (p, name, asPrefixContext) -> {
+            p.target.append(text);
+            return null;
+        };
+    }
+
+    private static PrintHandler text(String suffix) {
+        return (p, name, asPrefixContext) -> {
+            p.target.append(!name.text().isEmpty() ? name.text() : "");
+            p.target.append(suffix);
+            return null;
+        };
+    }
+
+    private static PrintHandler children(String prefix, String suffix, String separator) {
+        return (p, name, asPrefixContext) -> {
+            p.printChildren(name, prefix, suffix, separator);
+            return null;
+        };
+    }
+
+    private static PrintHandler entity(TypePrinting typePrinting, boolean hasName, String extraName, String overwriteName) {
+        return (p, name, asPrefixContext) -> p.printEntity(name, asPrefixContext, typePrinting, hasName, extraName, 0, overwriteName);
+    }
+
+    private static PrintHandler storage(String extraName) {
+        return (p, name, asPrefixContext) -> p.printAbstractStorage(name.children.get(0), asPrefixContext, extraName);
+    }
+
+    private static PrintHandler specialization(String description, String paramPrefix) {
+        return (p, name, asPrefixContext) -> {
+            p.printSpecializationPrefix(name, description, paramPrefix);
+            return null;
+        };
+    }
+
+    private static PrintHandler functionType(String prefix) {
+        return (p, name, asPrefixContext) -> {
+            p.target.append(prefix);
+            p.printFunctionType(null, name);
+            return null;
+        };
+    }
+
+    static {
+        on(firstChild("static ", null), SwiftSymbol.Kind.theStatic);
+        on(firstChild("curry thunk of ", null), SwiftSymbol.Kind.curryThunk);
+        on(firstChild("dispatch thunk of ", null), SwiftSymbol.Kind.dispatchThunk);
+        on(firstChild("method descriptor for ", null), SwiftSymbol.Kind.methodDescriptor);
+        on(firstChild("method lookup function for ", null), SwiftSymbol.Kind.methodLookupFunction);
+        on((p, name, a) -> {
+            p.target.append("outlined bridged method (" + (name.text().isEmpty() ? "" : name.text()) + ") of ");
+            return null;
+        }, SwiftSymbol.Kind.outlinedBridgedMethod);
+        on(firstChild("outlined copy of ", null), SwiftSymbol.Kind.outlinedCopy);
+        on(firstChild("outlined consume of ", null), SwiftSymbol.Kind.outlinedConsume);
+        on(firstChild("outlined retain of ", null), SwiftSymbol.Kind.outlinedRetain);
+        on(firstChild("outlined release of ", null), SwiftSymbol.Kind.outlinedRelease);
+        on(firstChild("outlined init with take of ", null), SwiftSymbol.Kind.outlinedInitializeWithTake);
+        on(firstChild("outlined init with copy of ", null), SwiftSymbol.Kind.outlinedInitializeWithCopy);
+        on(firstChild("outlined assign with take of ", null), SwiftSymbol.Kind.outlinedAssignWithTake);
+        on((p, name, a) -> {
+            int index = name.children.get(0).index();
+            p.target.append("outlined variable #");
+            p.target.append(index);
+            p.target.append(" of ");
+            return null;
+        }, SwiftSymbol.Kind.outlinedAssignWithCopy);
+        on(literal("outlined destroy of "), SwiftSymbol.Kind.outlinedDestroy);
+        on((p, name, a) -> {
+            p.target.append(("outlined variable #" + (name.index() > 0 ? name.index() : 0) + " of "));
+            return null;
+        }, SwiftSymbol.Kind.outlinedVariable);
+        on((p, name, a) -> {
+            SwiftSymbol.Directness dir = SwiftSymbol.Directness.DirectnessWithValue(name.index());
+            if (dir != null) {
+                p.target.append(dir.description());
             }
-            break;
-            case mergedFunction:
-                target += !((options & SHORTENTHUNK) == SHORTENTHUNK) ? "merged " : "";
-                break;
-            case symbolicReference:
-                target += "symbolic reference " + name.index();
-                break;
-            case unresolvedSymbolicReference: {
-                target += name.index();
+            return null;
+        }, SwiftSymbol.Kind.directness);
+        on((p, name, a) -> p.printAnonymousContext(name), SwiftSymbol.Kind.anonymousContext);
+        on((p, name, a) -> p.printExtension(name), SwiftSymbol.Kind.extension);
+        on(entity(TypePrinting.withColon, true, null, null), SwiftSymbol.Kind.variable);
+        on(entity(TypePrinting.functionStyle, true, null, null), SwiftSymbol.Kind.function, SwiftSymbol.Kind.boundGenericFunction);
+        on(entity(TypePrinting.functionStyle, true, null, "subscript"), SwiftSymbol.Kind.subscript);
+        on(entity(TypePrinting.noType, true, null, null), SwiftSymbol.Kind.genericTypeParamDecl, SwiftSymbol.Kind.theClass, SwiftSymbol.Kind.structure,
+                SwiftSymbol.Kind.theEnum, SwiftSymbol.Kind.protocol, SwiftSymbol.Kind.typeAlias, SwiftSymbol.Kind.otherNominalType);
+        on((p, name, a) -> p.printClosure(name, a, "closure #"), SwiftSymbol.Kind.explicitClosure);
+        on((p, name, a) -> p.printClosure(name, a, "implicit closure #"), SwiftSymbol.Kind.implicitClosure);
+        on(children(null, null, null), SwiftSymbol.Kind.global);
+        on((p, name, a) -> {
+            if ((p.options & DISPLAYUNMANGLEDSUFFIX) == DISPLAYUNMANGLEDSUFFIX) {
+                p.target.append(" with unmangled suffix ");
+                p.quotedString(name.text().isEmpty() ? "" : name.text());
             }
-            break;
-            case genericTypeMetadataPattern:
-                printFirstChild(name, "generic type metadata pattern for ", "", false);
-                break;
-            case metaclass:
-                printFirstChild(name, "metaclass for ", "", false);
-                break;
-            case protocolConformanceDescriptor:
-                printFirstChild(name, "protocol conformance descriptor for ", "", false);
-                break;
-            case protocolDescriptor:
-                printFirstChild(name, "protocol descriptor for ", "", false);
-                break;
-            case protocolRequirementsBaseDescriptor:
-                printFirstChild(name, "protocol requirements base descriptor for ", "", false);
-                break;
-            case fullTypeMetadata:
-                printFirstChild(name, "full type metadata for ", "", false);
-                break;
-            case typeMetadata:
-                printFirstChild(name, "type metadata for ", "", false);
-                break;
-            case typeMetadataAccessFunction:
-                printFirstChild(name, "type metadata accessor for ", "", false);
-                break;
-            case typeMetadataInstantiationCache:
-                printFirstChild(name, "type metadata instantiation cache for ", "", false);
-                break;
-            case typeMetadataInstantiationFunction:
-                printFirstChild(name, "type metadata instantiation cache for ", "", false);
-                break;
-            case typeMetadataSingletonInitializationCache:
-                printFirstChild(name, "type metadata singleton initialization cache for ", "", false);
-                break;
-            case typeMetadataCompletionFunction:
-                printFirstChild(name, "type metadata completion function for ", "", false);
-                break;
-            case typeMetadataLazyCache:
-                printFirstChild(name, "lazy cache variable for type metadata for ", "", false);
-                break;
-            case associatedConformanceDescriptor: {
-                printOptional(name.children.get(0), "associated conformance descriptor for ", "", false);
-                printOptional(name.children.get(1), ".", "", false);
-                printOptional(name.children.get(2), ": ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.suffix);
+        on(entity(TypePrinting.noType, false, "variable initialization expression", null), SwiftSymbol.Kind.initializer);
+        on((p, name, a) -> p.printEntity(name, a, TypePrinting.noType, false, ("default argument " + String.valueOf(name.children.get(1).index())), 0, null),
+                SwiftSymbol.Kind.defaultArgumentInitializer);
+        on(firstChild("", ""), SwiftSymbol.Kind.declContext, SwiftSymbol.Kind.type, SwiftSymbol.Kind.typeMangling);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(1), null, (" #" + ((name.children.get(0).index()) + 1)), false);
+            return null;
+        }, SwiftSymbol.Kind.localDeclName);
+        on((p, name, a) -> p.printPrivateDeclName(name), SwiftSymbol.Kind.privateDeclName);
+        on((p, name, a) -> {
+            p.printFirstChild(name, ("related decl '" + (!name.text().isEmpty() ? name.text() : "") + "' for "), "", false);
+            return null;
+        }, SwiftSymbol.Kind.relatedEntityDeclName);
+        on((p, name, a) -> {
+            if ((p.options & DISPLAYMODULENAMES) == DISPLAYMODULENAMES) {
+                p.target.append((!name.text().isEmpty() ? name.text() : ""));
             }
-            break;
-            case defaultAssociatedConformanceAccessor: {
-                printOptional(name.children.get(0), "default associated conformance descriptor for ", "", false);
-                printOptional(name.children.get(1), ".", "", false);
-                printOptional(name.children.get(2), ": ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.module);
+        on(text(""), SwiftSymbol.Kind.identifier, SwiftSymbol.Kind.builtinTypeName, SwiftSymbol.Kind.metatypeRepresentation,
+                SwiftSymbol.Kind.implConvention, SwiftSymbol.Kind.implFunctionAttribute, SwiftSymbol.Kind.dependentGenericParamType,
+                SwiftSymbol.Kind.dependentAssociatedTypeRef);
+        on((p, name, a) -> {
+            p.target.append((name.index() < 0) ? 0 : name.index());
+            return null;
+        }, SwiftSymbol.Kind.index);
+        on(functionType(""), SwiftSymbol.Kind.noEscapeFunctionType, SwiftSymbol.Kind.functionType, SwiftSymbol.Kind.uncurriedFunctionType);
+        on(functionType("@autoclosure "), SwiftSymbol.Kind.escapingAutoClosureType, SwiftSymbol.Kind.autoClosureType);
+        on(functionType("@convention(thin) "), SwiftSymbol.Kind.thinFunctionType);
+        on((p, name, a) -> {
+            p.printFunctionParameters(null, name, (p.options & SHOWFUNCTIONARGUMENTTYPES) == SHOWFUNCTIONARGUMENTTYPES);
+            return null;
+        }, SwiftSymbol.Kind.argumentTuple);
+        on(children("(", ")", ", "), SwiftSymbol.Kind.tuple);
+        on((p, name, a) -> p.printTupleElement(name), SwiftSymbol.Kind.tupleElement);
+        on(text(": "), SwiftSymbol.Kind.tupleElementName);
+        on((p, name, a) -> {
+            p.target.append(" -> ");
+            if (name.children.isEmpty() && !name.text().isEmpty()) {
+                p.target.append(name.text());
+            } else {
+                p.printChildren(name, null, null, null);
             }
-            break;
-            case associatedTypeDescriptor:
-                printFirstChild(name, "associated type descriptor for ", "", false);
-                break;
-            case associatedTypeMetadataAccessor: {
-                printOptional(name.children.get(1), "associated type metadata accessor for ", "", false);
-                printOptional(name.children.get(0), " in ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.returnType);
+        on((p, name, a) -> {
+            if (name.children.size() == 2) {
+                p.printChildren(name, "retroactive @ ", null, null);
             }
-            break;
-            case defaultAssociatedTypeMetadataAccessor:
-                printFirstChild(name, "default associated type metadata accessor for ", "", false);
-                break;
-            case associatedTypeWitnessTableAccessor: {
-                printOptional(name.children.get(1), "associated type witness table accessor for ", "", false);
-                printOptional(name.children.get(2), " : ", "", false);
-                printOptional(name.children.get(0), " in ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.retroactiveConformance);
+        on(firstChild("weak ", ""), SwiftSymbol.Kind.weak);
+        on(firstChild("unowned ", ""), SwiftSymbol.Kind.unowned);
+        on(firstChild("unowned(unsafe) ", ""), SwiftSymbol.Kind.unmanaged);
+        on(firstChild("inout ", ""), SwiftSymbol.Kind.inOut);
+        on(firstChild("__shared ", ""), SwiftSymbol.Kind.shared);
+        on(firstChild("__owned ", ""), SwiftSymbol.Kind.owned);
+        on(literal("@nonobjc "), SwiftSymbol.Kind.nonObjCAttribute);
+        on(literal("@objc "), SwiftSymbol.Kind.objCAttribute);
+        on(literal("super "), SwiftSymbol.Kind.directMethodReferenceAttribute);
+        on(literal("dynamic "), SwiftSymbol.Kind.dynamicAttribute);
+        on(specialization("function signature specialization", ""), SwiftSymbol.Kind.functionSignatureSpecialization);
+        // 与原switch一致: vTableAttribute 接着打印 functionSignatureSpecialization
+        on((p, name, a) -> {
+            p.target.append("override ");
+            p.printSpecializationPrefix(name, "function signature specialization", "");
+            return null;
+        }, SwiftSymbol.Kind.vTableAttribute);
+        on(specialization("generic partial specialization", "Signature = "), SwiftSymbol.Kind.genericPartialSpecialization);
+        // 与原switch一致: 接着按genericSpecialization再打印一次
+        on((p, name, a) -> {
+            p.printSpecializationPrefix(name, "generic not re-abstracted partial specialization", "Signature = ");
+            p.printSpecializationPrefix(name, "generic specialization", "");
+            return null;
+        }, SwiftSymbol.Kind.genericPartialSpecializationNotReAbstracted);
+        on(specialization("generic specialization", ""), SwiftSymbol.Kind.genericSpecialization);
+        on(specialization("generic not re-abstracted specialization", ""), SwiftSymbol.Kind.genericSpecializationNotReAbstracted);
+        on(literal("preserving fragile attribute"), SwiftSymbol.Kind.specializationIsFragile);
+        on((p, name, a) -> p.printGenericSpecializationParam(name), SwiftSymbol.Kind.genericSpecializationParam);
+        on((p, name, a) -> {
+            int index = name.index() > 0 ? name.index() : 0;
+            p.target.append("Arg[" + index + "] = ");
+            int idx = p.printFunctionSigSpecializationParam(name, 0);
+            while (idx < name.children.size()) {
+                p.target.append(" and ");
+                idx = p.printFunctionSigSpecializationParam(name, idx);
             }
-            break;
-            case classMetadataBaseOffset:
-                printFirstChild(name, "class metadata base offset for ", "", false);
-                break;
-            case propertyDescriptor:
-                printFirstChild(name, "property descriptor for ", "", false);
-                break;
-            case nominalTypeDescriptor:
-                printFirstChild(name, "nominal type descriptor for ", "", false);
-                break;
-            case coroutineContinuationPrototype:
-                printFirstChild(name, "coroutine continuation prototype for ", "", false);
-                break;
-            case valueWitness: {
-                target += SwiftSymbol.ValueWitnessKind.WitnessKindWithString(name.index()).toString();
-                target += (options & SHORTENVALUEWITNESS) == SHORTENVALUEWITNESS ? " for " : " value witness for ";
-                printFirstChild(name, "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.functionSignatureSpecializationParam);
+        on((p, name, a) -> {
+            DemangleResult payload = MMSwiftDemangle.tryParseMangledSwiftSymbol(name.text());
+            if (payload.isSuccess()) {
+                p.target.append(payload.symbol().description());
             }
-            break;
-            case valueWitnessTable:
-                printFirstChild(name, "value witness table for ", "", false);
-                break;
-            case boundGenericClass:
-            case boundGenericStructure:
-            case boundGenericEnum:
-            case boundGenericProtocol:
-            case boundGenericOtherNominalType:
-            case boundGenericTypeAlias:
-                printBoundGeneric(name);
-                break;
-            case dynamicSelf:
-                target += "Self";
-                break;
-            case cFunctionPointer:
-                target += "@convention(c) ";
-                printFunctionType(null, name);
-                break;
-            case objCBlock:
-                target += "@convention(block) ";
-                printFunctionType(null, name);
-                break;
-            case silBoxType: {
-                target += "@box ";
-                printFirstChild(name, "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.functionSignatureSpecializationParamPayload);
+        on((p, name, a) -> p.printFunctionSigSpecializationParamKind(name), SwiftSymbol.Kind.functionSignatureSpecializationParamKind);
+        on((p, name, a) -> {
+            p.target.append(name.index() > 0 ? name.index() : 0);
+            return null;
+        }, SwiftSymbol.Kind.specializationPassID, SwiftSymbol.Kind.number);
+        on(text(" infix"), SwiftSymbol.Kind.infixOperator);
+        on(text(" prefix"), SwiftSymbol.Kind.prefixOperator);
+        on(text(" postfix"), SwiftSymbol.Kind.postfixOperator);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(0), "lazy protocol witness table accessor for type ", null, false);
+            p.printOptional(name.children.get(1), " and conformance ", null, false);
+            return null;
+        }, SwiftSymbol.Kind.lazyProtocolWitnessTableAccessor);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(0), "lazy protocol witness table cache variable for type ", null, false);
+            p.printOptional(name.children.get(1), " and conformance ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.lazyProtocolWitnessTableCacheVariable);
+        on(firstChild("protocol witness table accessor for ", ""), SwiftSymbol.Kind.protocolWitnessTableAccessor);
+        on(firstChild("protocol witness table for ", ""), SwiftSymbol.Kind.protocolWitnessTable);
+        on(firstChild("protocol witness table pattern for ", ""), SwiftSymbol.Kind.protocolWitnessTablePattern);
+        on(firstChild("generic protocol witness table for ", ""), SwiftSymbol.Kind.genericProtocolWitnessTable);
+        on(firstChild("instantiation function for generic protocol witness table for ", ""), SwiftSymbol.Kind.genericProtocolWitnessTableInstantiationFunction);
+        on((p, name, a) -> {
+            p.target.append("resilient protocol witness table for ");
+            p.printFirstChild(name, "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.resilientProtocolWitnessTable);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(1), "vtable thunk for ", "", false);
+            p.printOptional(name.children.get(0), " dispatching to ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.vTableThunk);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(1), "protocol witness for ", "", false);
+            p.printOptional(name.children.get(0), " in conformance ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.protocolWitness);
+        on((p, name, a) -> p.printPartialApply(name, " forwarder"), SwiftSymbol.Kind.partialApplyForwarder);
+        on((p, name, a) -> p.printPartialApply(name, " ObjC forwarder"), SwiftSymbol.Kind.partialApplyObjCForwarder);
+        on((p, name, a) -> p.printKeyPathAccessorThunk(name, "key path getter for "), SwiftSymbol.Kind.keyPathGetterThunkHelper);
+        on((p, name, a) -> p.printKeyPathAccessorThunk(name, "key path setter for "), SwiftSymbol.Kind.keyPathSetterThunkHelper);
+        on((p, name, a) -> p.printKeyPathIndexThunk(name), SwiftSymbol.Kind.keyPathEqualsThunkHelper, SwiftSymbol.Kind.keyPathHashThunkHelper);
+        on((p, name, a) -> {
+            p.printFirstChild(name, "", "", false);
+            p.printOptional(name.children.get(1), "field offset for ", "", true);
+            return null;
+        }, SwiftSymbol.Kind.fieldOffset);
+        on((p, name, a) -> {
+            p.target.append("enum case for ");
+            p.printFirstChild(name, "", " : ", false);
+            return null;
+        }, SwiftSymbol.Kind.enumCase);
+        on((p, name, a) -> p.printReabstractionThunk(name), SwiftSymbol.Kind.reabstractionThunk, SwiftSymbol.Kind.reabstractionThunkHelper);
+        on((p, name, a) -> {
+            p.target.append(!((p.options & SHORTENTHUNK) == SHORTENTHUNK) ? "merged " : "");
+            return null;
+        }, SwiftSymbol.Kind.mergedFunction);
+        on((p, name, a) -> {
+            p.target.append("symbolic reference " + name.index());
+            return null;
+        }, SwiftSymbol.Kind.symbolicReference);
+        on((p, name, a) -> {
+            p.target.append(name.index());
+            return null;
+        }, SwiftSymbol.Kind.unresolvedSymbolicReference);
+        on(firstChild("generic type metadata pattern for ", ""), SwiftSymbol.Kind.genericTypeMetadataPattern);
+        on(firstChild("metaclass for ", ""), SwiftSymbol.Kind.metaclass);
+        on(firstChild("protocol conformance descriptor for ", ""), SwiftSymbol.Kind.protocolConformanceDescriptor);
+        on(firstChild("protocol descriptor for ", ""), SwiftSymbol.Kind.protocolDescriptor);
+        on(firstChild("protocol requirements base descriptor for ", ""), SwiftSymbol.Kind.protocolRequirementsBaseDescriptor);
+        on(firstChild("full type metadata for ", ""), SwiftSymbol.Kind.fullTypeMetadata);
+        on(firstChild("type metadata for ", ""), SwiftSymbol.Kind.typeMetadata);
+        on(firstChild("type metadata accessor for ", ""), SwiftSymbol.Kind.typeMetadataAccessFunction);
+        on(firstChild("type metadata instantiation cache for ", ""), SwiftSymbol.Kind.typeMetadataInstantiationCache, SwiftSymbol.Kind.typeMetadataInstantiationFunction);
+        on(firstChild("type metadata singleton initialization cache for ", ""), SwiftSymbol.Kind.typeMetadataSingletonInitializationCache);
+        on(firstChild("type metadata completion function for ", ""), SwiftSymbol.Kind.typeMetadataCompletionFunction);
+        on(firstChild("lazy cache variable for type metadata for ", ""), SwiftSymbol.Kind.typeMetadataLazyCache);
+        on((p, name, a) -> p.printAssociatedConformance(name, "associated conformance descriptor for "), SwiftSymbol.Kind.associatedConformanceDescriptor);
+        on((p, name, a) -> p.printAssociatedConformance(name, "default associated conformance descriptor for "), SwiftSymbol.Kind.defaultAssociatedConformanceAccessor);
+        on(firstChild("associated type descriptor for ", ""), SwiftSymbol.Kind.associatedTypeDescriptor);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(1), "associated type metadata accessor for ", "", false);
+            p.printOptional(name.children.get(0), " in ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.associatedTypeMetadataAccessor);
+        on(firstChild("default associated type metadata accessor for ", ""), SwiftSymbol.Kind.defaultAssociatedTypeMetadataAccessor);
+        on((p, name, a) -> {
+            p.printOptional(name.children.get(1), "associated type witness table accessor for ", "", false);
+            p.printOptional(name.children.get(2), " : ", "", false);
+            p.printOptional(name.children.get(0), " in ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.associatedTypeWitnessTableAccessor);
+        on(firstChild("class metadata base offset for ", ""), SwiftSymbol.Kind.classMetadataBaseOffset);
+        on(firstChild("property descriptor for ", ""), SwiftSymbol.Kind.propertyDescriptor);
+        on(firstChild("nominal type descriptor for ", ""), SwiftSymbol.Kind.nominalTypeDescriptor);
+        on(firstChild("coroutine continuation prototype for ", ""), SwiftSymbol.Kind.coroutineContinuationPrototype);
+        on((p, name, a) -> {
+            p.target.append(SwiftSymbol.ValueWitnessKind.WitnessKindWithString(name.index()).toString());
+            p.target.append((p.options & SHORTENVALUEWITNESS) == SHORTENVALUEWITNESS ? " for " : " value witness for ");
+            p.printFirstChild(name, "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.valueWitness);
+        on(firstChild("value witness table for ", ""), SwiftSymbol.Kind.valueWitnessTable);
+        on((p, name, a) -> {
+            p.printBoundGeneric(name);
+            return null;
+        }, SwiftSymbol.Kind.boundGenericClass, SwiftSymbol.Kind.boundGenericStructure, SwiftSymbol.Kind.boundGenericEnum,
+                SwiftSymbol.Kind.boundGenericProtocol, SwiftSymbol.Kind.boundGenericOtherNominalType, SwiftSymbol.Kind.boundGenericTypeAlias);
+        on(literal("Self"), SwiftSymbol.Kind.dynamicSelf);
+        on(functionType("@convention(c) "), SwiftSymbol.Kind.cFunctionPointer);
+        on(functionType("@convention(block) "), SwiftSymbol.Kind.objCBlock);
+        on((p, name, a) -> {
+            p.target.append("@box ");
+            p.printFirstChild(name, "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.silBoxType);
+        on((p, name, a) -> p.printMetatype(name), SwiftSymbol.Kind.metatype);
+        on((p, name, a) -> {
+            if (name.children.size() == 2) {
+                p.printFirstChild(name, " ", "", false);
             }
-            break;
-            case metatype: {
-                if (name.children.size() == 2) {
-                    printFirstChild(name, " ", "", false);
-                }
-                SwiftSymbol first = name.children.get(name.children.size() == 2 ? 1 : 0).children.get(0);
-                if (first == null) {
-                    return null;
-                }
-                boolean needParens = !first.kind.isSimpleType();
-                target += needParens ? "(" : "";
-                printName(first, false);
-                target += needParens ? ")" : "";
-                target += first.kind.isExistentialType() ? ".Protocol" : ".Type";
+            p.printOptional(name.children.get(name.children.size() == 2 ? 1 : 0), null, ".Type", false);
+            return null;
+        }, SwiftSymbol.Kind.existentialMetatype);
+        on((p, name, a) -> {
+            p.printFirstChild(name, " ", "", false);
+            String text = name.children.get(1) != null ? name.children.get(1).text() : "";
+            p.target.append("." + text);
+            return null;
+        }, SwiftSymbol.Kind.associatedTypeRef);
+        on((p, name, a) -> p.printProtocolList(name), SwiftSymbol.Kind.protocolList);
+        on((p, name, a) -> p.printProtocolListWithClass(name), SwiftSymbol.Kind.protocolListWithClass);
+        on((p, name, a) -> p.printProtocolListWithAnyObject(name), SwiftSymbol.Kind.protocolListWithAnyObject);
+        on(storage("owningAddressor"), SwiftSymbol.Kind.owningAddressor);
+        on(storage("owningMutableAddressor"), SwiftSymbol.Kind.owningMutableAddressor);
+        on(storage("nativeOwningAddressor"), SwiftSymbol.Kind.nativeOwningAddressor);
+        on(storage("nativeOwningMutableAddressor"), SwiftSymbol.Kind.nativeOwningMutableAddressor);
+        on(storage("nativePinningAddressor"), SwiftSymbol.Kind.nativePinningAddressor);
+        on(storage("nativePinningMutableAddressor"), SwiftSymbol.Kind.nativePinningMutableAddressor);
+        on(storage("unsafeAddressor"), SwiftSymbol.Kind.unsafeAddressor);
+        on(storage("unsafeMutableAddressor"), SwiftSymbol.Kind.unsafeMutableAddressor);
+        on(storage("getter"), SwiftSymbol.Kind.globalGetter, SwiftSymbol.Kind.getter);
+        on(storage("setter"), SwiftSymbol.Kind.setter);
+        on(storage("materializeForSet"), SwiftSymbol.Kind.materializeForSet);
+        on(storage("willset"), SwiftSymbol.Kind.willSet);
+        on(storage("didset"), SwiftSymbol.Kind.didSet);
+        on(storage("read"), SwiftSymbol.Kind.readAccessor);
+        on(storage("modify"), SwiftSymbol.Kind.modifyAccessor);
+        on((p, name, a) -> p.printEntity(name, a, TypePrinting.functionStyle,
+                false, (name.children.get(0).kind == SwiftSymbol.Kind.theClass) ? "__allocating_init" : "init", 0, null), SwiftSymbol.Kind.allocator);
+        on((p, name, a) -> p.printEntity(name, a, TypePrinting.functionStyle,
+                name.children.size() > 2, "init", 0, null), SwiftSymbol.Kind.constructor);
+        on(entity(TypePrinting.noType, false, "deinit", null), SwiftSymbol.Kind.destructor);
+        on((p, name, a) -> p.printEntity(name, a, TypePrinting.noType,
+                false, (name.children.get(0).kind == SwiftSymbol.Kind.theClass) ? "__deallocating_deinit" : "deinit", 0, null), SwiftSymbol.Kind.deallocator);
+        on(entity(TypePrinting.noType, false, "__ivar_initializer", null), SwiftSymbol.Kind.iVarInitializer);
+        on(entity(TypePrinting.noType, false, "__ivar_destroyer", null), SwiftSymbol.Kind.iVarDestroyer);
+        on((p, name, a) -> p.printProtocolConformance(name), SwiftSymbol.Kind.protocolConformance);
+        on(children("", "", ""), SwiftSymbol.Kind.typeList);
+        on(literal("@escaping"), SwiftSymbol.Kind.implEscaping);
+        on((p, name, a) -> {
+            p.target.append("@error");
+            p.printChildren(name, "", "", " ");
+            return null;
+        }, SwiftSymbol.Kind.implErrorResult);
+        on(children("", "", " "), SwiftSymbol.Kind.implParameter, SwiftSymbol.Kind.implResult);
+        on((p, name, a) -> {
+            p.printImplFunctionType(name);
+            return null;
+        }, SwiftSymbol.Kind.implFunctionType);
+        on(literal("<ERROR TYPE>"), SwiftSymbol.Kind.errorType);
+        on((p, name, a) -> p.printDependentGenericSignature(name), SwiftSymbol.Kind.dependentPseudogenericSignature, SwiftSymbol.Kind.dependentGenericSignature);
+        on((p, name, a) -> {
+            p.printFirstChild(name, "", "", false);
+            p.printOptional(name.children.get(1), ": ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.dependentGenericConformanceRequirement);
+        on((p, name, a) -> p.printDependentGenericLayoutRequirement(name), SwiftSymbol.Kind.dependentGenericLayoutRequirement);
+        on((p, name, a) -> {
+            p.printFirstChild(name, "", "", false);
+            p.printOptional(name.children.get(1), " == ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.dependentGenericSameTypeRequirement);
+        on((p, name, a) -> {
+            SwiftSymbol depType = name.children.get(1);
+            if (depType == null) {
+                return null;
             }
-            break;
-            case existentialMetatype: {
-                if (name.children.size() == 2) {
-                    printFirstChild(name, " ", "", false);
-                }
-                printOptional(name.children.get(name.children.size() == 2 ? 1 : 0), null, ".Type", false);
+            p.printFirstChild(name, "", "", false);
+            p.printOptional(depType, depType.needSpaceBeforeType() ? " " : "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.dependentGenericType);
+        on((p, name, a) -> {
+            p.printFirstChild(name, "", "", false);
+            p.target.append(".");
+            p.printOptional(name.children.get(1), "", "", false);
+            return null;
+        }, SwiftSymbol.Kind.dependentMemberType);
+        on(firstChild("reflection metadata builtin descriptor ", ""), SwiftSymbol.Kind.reflectionMetadataBuiltinDescriptor);
+        on(firstChild("reflection metadata field descriptor ", ""), SwiftSymbol.Kind.reflectionMetadataFieldDescriptor);
+        on(firstChild("reflection metadata associated type descriptor ", ""), SwiftSymbol.Kind.reflectionMetadataAssocTypeDescriptor);
+        on(firstChild("reflection metadata superclass descriptor ", ""), SwiftSymbol.Kind.reflectionMetadataSuperclassDescriptor);
+        on(literal(" throws "), SwiftSymbol.Kind.throwsAnnotation);
+        on(literal(" empty-list "), SwiftSymbol.Kind.emptyList);
+        on(literal(" first-element-marker "), SwiftSymbol.Kind.firstElementMarker);
+        on(literal(" variadic-marker "), SwiftSymbol.Kind.variadicMarker);
+        on((p, name, a) -> p.printSilBoxTypeWithLayout(name), SwiftSymbol.Kind.silBoxTypeWithLayout);
+        on((p, name, a) -> {
+            String text = name.children.isEmpty() ? "" : " ";
+            p.printSequence(name.children, "{" + text, " }", ", ");
+            return null;
+        }, SwiftSymbol.Kind.silBoxLayout);
+        on((p, name, a) -> {
+            p.printFirstChild(name, name.kind == SwiftSymbol.Kind.silBoxImmutableField ? "let " : "var ", "", false);
+            return null;
+        }, SwiftSymbol.Kind.silBoxImmutableField, SwiftSymbol.Kind.silBoxMutableField);
+        on(children("", "", "."), SwiftSymbol.Kind.assocTypePath);
+        on(children("module descriptor ", "", ""), SwiftSymbol.Kind.moduleDescriptor);
+        on(children("anonymous descriptor ", "", ""), SwiftSymbol.Kind.anonymousDescriptor);
+        on(children("extension descriptor ", "", ""), SwiftSymbol.Kind.extensionDescriptor);
+        on(children("generic parameter reference for associated type ", "", ""), SwiftSymbol.Kind.associatedTypeGenericParamRef);
+        // associatedType, dependentGenericParamCount, labelList: 不打印
+    }
 
+    private SwiftSymbol printAnonymousContext(SwiftSymbol name) {
+        if ((options & QUALIFYENTITIES) == QUALIFYENTITIES && (options & DISPLAYEXTENSIONCONTEXTS) == DISPLAYEXTENSIONCONTEXTS) {
+            printOptional(name.children.get(1), null, null, false);
+            String text = "";
+            if (name.children.get(0).text() != null) {
+                text = name.children.get(0).text();
+            }
+            target.append(".(unknown context at " + text + ")");
+            SwiftSymbol second = name.children.get(2);
+            if (second != null && !second.children.isEmpty()) {
+                target.append("<");
+                printName(second, false);
+                target.append(">");
             }
-            break;
-            case metatypeRepresentation:
-                target += name.text().isEmpty() ? "" : name.text();
-                break;
-            case associatedTypeRef: {
-                printFirstChild(name, " ", "", false);
-                String text = name.children.get(1) != null ? name.children.get(1).text() : "";
-                target += "." + text;
-            }
-            break;
-            case protocolList: {
-                SwiftSymbol typeList = name.children.get(0);
-                if (typeList == null) {
-                    return null;
-                }
-                if (typeList.children.isEmpty()) {
-                    target += "Any";
-                } else {
-                    printChildren(typeList, "", "", " & ");
-                }
-            }
-            break;
-            case protocolListWithClass: {
-                if (name.children.size() < 2) return null;
-                printOptional(name.children.get(1), null, " & ", false);
-                SwiftSymbol protocolsTypeList = name.children.get(0).children.get(0);
-                if (protocolsTypeList != null) {
-                    printChildren(protocolsTypeList, null, "", " & ");
-                }
-            }
-            break;
-            case protocolListWithAnyObject: {
-                SwiftSymbol prot = name.children.get(0);
-                if (prot == null) return null;
-                SwiftSymbol protocolsTypeList = prot.children.get(0);
-                if (protocolsTypeList == null) return null;
-                if (protocolsTypeList.children.size() > 0) {
-                    printChildren(protocolsTypeList, "", " & ", " & ");
-                }
-                if ((options & QUALIFYENTITIES) == QUALIFYENTITIES) {
-                    target += "Swift.";
-                }
-                target += "AnyObject";
-            }
-            break;
-            case associatedType:
-                return null;
-            case owningAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "owningAddressor");
-            case owningMutableAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "owningMutableAddressor");
-            case nativeOwningAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "nativeOwningAddressor");
-            case nativeOwningMutableAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "nativeOwningMutableAddressor");
-            case nativePinningAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "nativePinningAddressor");
-            case nativePinningMutableAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "nativePinningMutableAddressor");
-            case unsafeAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "unsafeAddressor");
-            case unsafeMutableAddressor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "unsafeMutableAddressor");
-            case globalGetter:
-            case getter:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "getter");
-            case setter:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "setter");
-            case materializeForSet:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "materializeForSet");
-            case willSet:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "willset");
-            case didSet:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "didset");
-            case readAccessor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "read");
-            case modifyAccessor:
-                return printAbstractStorage(name.children.get(0), asPrefixContext,
-                        "modify");
-            case allocator:
-                return printEntity(name, asPrefixContext, TypePrinting.functionStyle,
-                        false, (name.children.get(0).kind == SwiftSymbol.Kind.theClass) ? "__allocating_init" : "init", 0, null);
-            case constructor:
-                return printEntity(name, asPrefixContext, TypePrinting.functionStyle,
-                        name.children.size() > 2, "init", 0, null);
-            case destructor:
-                return printEntity(name, asPrefixContext, TypePrinting.noType,
-                        false, "deinit", 0, null);
-            case deallocator:
-                return printEntity(name, asPrefixContext, TypePrinting.noType,
-                        false, (name.children.get(0).kind == SwiftSymbol.Kind.theClass) ? "__deallocating_deinit" : "deinit", 0, null);
-            case iVarInitializer:
-                return printEntity(name, asPrefixContext, TypePrinting.noType,
-                        false, "__ivar_initializer", 0, null);
-            case iVarDestroyer:
-                return printEntity(name, asPrefixContext, TypePrinting.noType,
-                        false, "__ivar_destroyer", 0, null);
-            case protocolConformance: {
-                if (name.children.size() == 4) {
-                    printOptional(name.children.get(2), "property behavior storage of ", "", false);
-                    printOptional(name.children.get(0), " in ", "", false);
-                    printOptional(name.children.get(1), " : ", "", false);
-                } else {
-                    printChildren(name, null, null, "");
-                    if ((options & DISPLAYPROTOCOLCONFORMANCES) == DISPLAYPROTOCOLCONFORMANCES) {
-                        printOptional(name.children.get(1), " : ", "", false);
-                        printOptional(name.children.get(2), " in ", "", false);
-                    }
-                }
-            }
-            break;
-            case typeList:
-                printChildren(name, "", "", "");
-                break;
-            case labelList:
-                break;
-            case implEscaping:
-                target += "@escaping";
-                break;
-            case implConvention:
-            case implFunctionAttribute:
-                target += name.text().isEmpty() ? "" : name.text();
-                break;
-            case implErrorResult:
-                target += "@error";
-                printChildren(name, "", "", " ");
-                break;
-            case implParameter:
-            case implResult:
-                printChildren(name, "", "", " ");
-                break;
-            case implFunctionType:
-                printImplFunctionType(name);
-                break;
-            case errorType:
-                target += "<ERROR TYPE>";
-                break;
-            case dependentPseudogenericSignature:
-            case dependentGenericSignature: {
-                target += "<";
-                int lastDepth = 0;
-                for (int i = 0; i < name.children.size(); i++) {
-                    SwiftSymbol c = name.children.get(i);
-                    if (c.kind != SwiftSymbol.Kind.dependentGenericParamCount) break;
-                    lastDepth = i;
-                    target += i == 0 ? "" : "><";
-                    int count = c.index() > 0 ? c.index() : 0;
-                    for (int j = 0; j < count; j++) {
-                        target += (j != 0 ? ", " : "");
-                        if (j >= 128) {
-                            target += "...";
-                            break;
-                        }
-                        target += archetypeName(j, i);
-                    }
-                }
-                if (lastDepth != name.children.size() - 1) {
-                    if ((options & DISPLAYWHERECLAUSES) == DISPLAYWHERECLAUSES) {
-                        printSequence(Utility.slice(name.children, lastDepth + 1, name.children.size()), "where ", "", ", ");
-                    }
+        }
+        return null;
+    }
+
+    private SwiftSymbol printExtension(SwiftSymbol name) {
+        if ((options & QUALIFYENTITIES) == QUALIFYENTITIES && (options & DISPLAYEXTENSIONCONTEXTS) == DISPLAYEXTENSIONCONTEXTS) {
+            printFirstChild(name, "(extension in ", "):", true);
+        }
+        printSequence(Utility.slice(name.children, 1, 3), null, null, null);
+        return null;
+    }
+
+    private SwiftSymbol printClosure(SwiftSymbol name, boolean asPrefixContext, String extraName) {
+        TypePrinting typePrinting = ((options & SHOWFUNCTIONARGUMENTTYPES) == SHOWFUNCTIONARGUMENTTYPES) ? TypePrinting.functionStyle : TypePrinting.noType;
+        return printEntity(name, asPrefixContext, typePrinting, false, extraName, (name.children.get(1).index()) + 1, null);
+    }
+
+    private SwiftSymbol printPrivateDeclName(SwiftSymbol name) {
+        printOptional(name.children.get(1), (options & SHOWPRIVATEDISCRIMINATORS) == SHOWPRIVATEDISCRIMINATORS ? "(" : "", "", false);
+        String t_i = name.children.size() > 1 ? " " : "(";
+        String t_j = !name.children.get(0).text().isEmpty() ? name.children.get(0).text() : "";
+        target.append((options & SHOWPRIVATEDISCRIMINATORS) == SHOWPRIVATEDISCRIMINATORS ? (t_i + "in " + t_j + ")") : "");
+        return null;
+    }
+
+    private SwiftSymbol printTupleElement(SwiftSymbol name) {
+        SwiftSymbol first = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.tupleElementName);
+        if (first != null) {
+            target.append((!first.text().isEmpty() ? first.text() : "") + ": ");
+        }
+
+        SwiftSymbol type = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.type);
+        if (type == null) {
+            return null;
+        }
+        printName(type, false);
+        SwiftSymbol last = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.variadicMarker);
+        if (last != null) {
+            target.append("...");
+        }
+        return null;
+    }
+
+    private SwiftSymbol printGenericSpecializationParam(SwiftSymbol name) {
+        printFirstChild(name, "", "", false);
+        printOptional(name.children.get(1), " with ", "", false);
+        List<SwiftSymbol> subList = Utility.slice(name.children, 2, name.children.size());
+        for (SwiftSymbol s : subList) {
+            target.append(" and ");
+            printName(s, false);
+        }
+        return null;
+    }
+
+    private SwiftSymbol printFunctionSigSpecializationParamKind(SwiftSymbol name) {
+        int raw = name.index() > 0 ? name.index() : 0;
+        SwiftSymbol.FunctionSigSpecializationParamKind kind = SwiftSymbol.FunctionSigSpecializationParamKind.paramKind(raw);
+        if (kind != null) {
+            target.append(kind.description());
+        } else {
+            SafeArrayList<SwiftSymbol.FunctionSigSpecializationParamKind> kinds = new SafeArrayList();
+            kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.existentialToGeneric);
+            kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.dead);
+            kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.ownedToGuaranteed);
+            kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.guaranteedToOwned);
+            kinds.add(SwiftSymbol.FunctionSigSpecializationParamKind.sroa);
+            String sep = " and ";
+
+            SafeArrayList<String> newList = new SafeArrayList();
+            for (SwiftSymbol.FunctionSigSpecializationParamKind kind_ : kinds) {
+                if ((raw & kind_.getValue()) == kind_.getValue()) {
+                    if (!kind_.description().isEmpty()) newList.add(kind_.description());
                 }
-                target += ">";
             }
-            break;
-            case dependentGenericParamCount:
-                return null;
-            case dependentGenericConformanceRequirement: {
-                printFirstChild(name, "", "", false);
-                printOptional(name.children.get(1), ": ", "", false);
-            }
-            break;
-            case dependentGenericLayoutRequirement: {
-                SwiftSymbol layout = name.children.get(1);
-                if (layout == null) return null;
-                char c = '\u0000';
-                if (!layout.text().isEmpty()) c = layout.text().charAt(0);
-                if (c == '\u0000') return null;
-                printFirstChild(name, "", ": ", false);
-
-                switch (c) {
-                    case 'U':
-                        target += "_UnknownLayout";
-                        break;
-                    case 'R':
-                        target += "_RefCountedObject";
-                        break;
-                    case 'N':
-                        target += "_NativeRefCountedObject";
-                        break;
-                    case 'C':
-                        target += "AnyObject";
-                        break;
-                    case 'D':
-                        target += "_NativeClass";
-                        break;
-                    case 'T':
-                    case 'E':
-                    case 'e':
-                        target += "_Trivial";
-                        break;
-                    case 'M':
-                    case 'm':
-                        target += "_TrivialAtMost";
-                        break;
-                    default:
-                        break;
-                }
-                if (name.children.size() > 2) {
-                    printOptional(name.children.get(2), "(", "", false);
-                    printOptional(name.children.get(3), ", ", "", false);
-                    target += ")";
+            for (int i = 0; i < newList.size(); i++) {
+                target.append(newList.get(i));
+                if (i < newList.size() - 1) {
+                    target.append(sep);
                 }
             }
-            break;
-            case dependentGenericSameTypeRequirement: {
-                printFirstChild(name, "", "", false);
-                printOptional(name.children.get(1), " == ", "", false);
+        }
+        return null;
+    }
+
+    private SwiftSymbol printPartialApply(SwiftSymbol name, String forwarder) {
+        String text = (options & SHORTENPARTIALAPPLY) == SHORTENPARTIALAPPLY ? "" : forwarder;
+        target.append("partial apply" + text);
+        printFirstChild(name, " for ", "", false);
+        return null;
+    }
+
+    private SwiftSymbol printKeyPathAccessorThunk(SwiftSymbol name, String prefix) {
+        printFirstChild(name, prefix, " : ", false);
+        printOptional(name.children.get(1), "", "", false);
+        printOptional(name.children.get(2), "", "", false);
+        return null;
+    }
+
+    private SwiftSymbol printKeyPathIndexThunk(SwiftSymbol name) {
+        String text = name.kind == SwiftSymbol.Kind.keyPathEqualsThunkHelper ? "equality" : "hash";
+        target.append("key path index " + text + " operator for ");
+        boolean dropLast = false;
+        SwiftSymbol last = name.children.get(name.children.size() - 1);
+        if (last != null && last.kind == SwiftSymbol.Kind.dependentGenericSignature) {
+            printName(last, false);
+            dropLast = true;
+        }
+        List newList = name.children;
+        if (dropLast) {
+            newList = Utility.dropLast(name.children);
+        }
+        printSequence(newList, "(", ")", ", ");
+        return null;
+    }
+
+    private SwiftSymbol printReabstractionThunk(SwiftSymbol name) {
+        if ((options & SHORTENTHUNK) == SHORTENTHUNK) {
+            printOptional(name.children.get(name.children.size() - 2), "thunk for ", null, false);
+            return null;
+        }
+        target.append("reabstraction thunk ");
+        target.append(name.kind == SwiftSymbol.Kind.reabstractionThunkHelper ? "helper " : "");
+        SwiftSymbol first = Utility.First(name.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.dependentGenericSignature);
+        if (first != null) {
+            printOptional(first, "", " ", false);
+        }
+        printOptional(name.children.get(name.children.size() - 2), "from ", "", false);
+        printOptional(name.children.get(name.children.size() - 1), " to ", "", false);
+        return null;
+    }
+
+    private SwiftSymbol printAssociatedConformance(SwiftSymbol name, String prefix) {
+        printOptional(name.children.get(0), prefix, "", false);
+        printOptional(name.children.get(1), ".", "", false);
+        printOptional(name.children.get(2), ": ", "", false);
+        return null;
+    }
+
+    private SwiftSymbol printMetatype(SwiftSymbol name) {
+        if (name.children.size() == 2) {
+            printFirstChild(name, " ", "", false);
+        }
+        SwiftSymbol first = name.children.get(name.children.size() == 2 ? 1 : 0).children.get(0);
+        if (first == null) {
+            return null;
+        }
+        boolean needParens = !first.kind.isSimpleType();
+        target.append(needParens ? "(" : "");
+        printName(first, false);
+        target.append(needParens ? ")" : "");
+        target.append(first.kind.isExistentialType() ? ".Protocol" : ".Type");
+        return null;
+    }
+
+    private SwiftSymbol printProtocolList(SwiftSymbol name) {
+        SwiftSymbol typeList = name.children.get(0);
+        if (typeList == null) {
+            return null;
+        }
+        if (typeList.children.isEmpty()) {
+            target.append("Any");
+        } else {
+            printChildren(typeList, "", "", " & ");
+        }
+        return null;
+    }
+
+    private SwiftSymbol printProtocolListWithClass(SwiftSymbol name) {
+        if (name.children.size() < 2) return null;
+        printOptional(name.children.get(1), null, " & ", false);
+        SwiftSymbol protocolsTypeList = name.children.get(0).children.get(0);
+        if (protocolsTypeList != null) {
+            printChildren(protocolsTypeList, null, "", " & ");
+        }
+        return null;
+    }
+
+    private SwiftSymbol printProtocolListWithAnyObject(SwiftSymbol name) {
+        SwiftSymbol prot = name.children.get(0);
+        if (prot == null) return null;
+        SwiftSymbol protocolsTypeList = prot.children.get(0);
+        if (protocolsTypeList == null) return null;
+        if (protocolsTypeList.children.size() > 0) {
+            printChildren(protocolsTypeList, "", " & ", " & ");
+        }
+        if ((options & QUALIFYENTITIES) == QUALIFYENTITIES) {
+            target.append("Swift.");
+        }
+        target.append("AnyObject");
+        return null;
+    }
+
+    private SwiftSymbol printProtocolConformance(SwiftSymbol name) {
+        if (name.children.size() == 4) {
+            printOptional(name.children.get(2), "property behavior storage of ", "", false);
+            printOptional(name.children.get(0), " in ", "", false);
+            printOptional(name.children.get(1), " : ", "", false);
+        } else {
+            printChildren(name, null, null, "");
+            if ((options & DISPLAYPROTOCOLCONFORMANCES) == DISPLAYPROTOCOLCONFORMANCES) {
+                printOptional(name.children.get(1), " : ", "", false);
+                printOptional(name.children.get(2), " in ", "", false);
             }
-            break;
-            case dependentGenericParamType:
-                target += name.text().isEmpty() ? "" : name.text();
-                break;
-            case dependentGenericType: {
-                SwiftSymbol depType = name.children.get(1);
-                if (depType == null) {
-                    return null;
+        }
+        return null;
+    }
+
+    private SwiftSymbol printDependentGenericSignature(SwiftSymbol name) {
+        target.append("<");
+        int lastDepth = 0;
+        for (int i = 0; i < name.children.size(); i++) {
+            SwiftSymbol c = name.children.get(i);
+            if (c.kind != SwiftSymbol.Kind.dependentGenericParamCount) break;
+            lastDepth = i;
+            target.append(i == 0 ? "" : "><");
+            int count = c.index() > 0 ? c.index() : 0;
+            for (int j = 0; j < count; j++) {
+                target.append((j != 0 ? ", " : ""));
+                if (j >= 128) {
+                    target.append("...");
+                    break;
                 }
-                printFirstChild(name, "", "", false);
-                printOptional(depType, depType.needSpaceBeforeType() ? " " : "", "", false);
+                target.append(archetypeName(j, i));
             }
-            break;
-            case dependentMemberType: {
-                printFirstChild(name, "", "", false);
-                target += ".";
-                printOptional(name.children.get(1), "", "", false);
+        }
+        if (lastDepth != name.children.size() - 1) {
+            if ((options & DISPLAYWHERECLAUSES) == DISPLAYWHERECLAUSES) {
+                printSequence(Utility.slice(name.children, lastDepth + 1, name.children.size()), "where ", "", ", ");
             }
-            break;
-            case dependentAssociatedTypeRef:
-                target += (name.text().isEmpty() ? "" : name.text());
-                break;
-            case reflectionMetadataBuiltinDescriptor:
-                printFirstChild(name, "reflection metadata builtin descriptor ", "", false);
-                break;
-            case reflectionMetadataFieldDescriptor:
-                printFirstChild(name, "reflection metadata field descriptor ", "", false);
-                break;
-            case reflectionMetadataAssocTypeDescriptor:
-                printFirstChild(name, "reflection metadata associated type descriptor ", "", false);
-                break;
-            case reflectionMetadataSuperclassDescriptor:
-                printFirstChild(name, "reflection metadata superclass descriptor ", "", false);
-                break;
-            case throwsAnnotation:
-                target += " throws ";
-                break;
-            case emptyList:
-                target += " empty-list ";
-                break;
-            case firstElementMarker:
-                target += " first-element-marker ";
-                break;
-            case variadicMarker:
-                target += " variadic-marker ";
+        }
+        target.append(">");
+        return null;
+    }
+
+    private SwiftSymbol printDependentGenericLayoutRequirement(SwiftSymbol name) {
+        SwiftSymbol layout = name.children.get(1);
+        if (layout == null) return null;
+        char c = '\u0000';
+        if (!layout.text().isEmpty()) c = layout.text().charAt(0);
+        if (c == '\u0000') return null;
+        printFirstChild(name, "", ": ", false);
+
+        switch (c) {
+            case 'U':
+                target.append("_UnknownLayout");
                 break;
-            case silBoxTypeWithLayout: {
-                SwiftSymbol layout = name.children.get(0);
-                if (layout == null) {
-                    return null;
-                }
-                printOptional(name.children.get(1), "", " ", false);
-                printName(layout, false);
-                SwiftSymbol genericArgs = name.children.get(2);
-                if (genericArgs != null) {
-                    printSequence(genericArgs.children, " <", ">", ", ");
-                }
-            }
-            break;
-            case silBoxLayout:
-                String text = name.children.isEmpty() ? "" : " ";
-                printSequence(name.children, "{" + text, " }", ", ");
+            case 'R':
+                target.append("_RefCountedObject");
                 break;
-            case silBoxImmutableField:
-            case silBoxMutableField:
-                printFirstChild(name, name.kind == SwiftSymbol.Kind.silBoxImmutableField ? "let " : "var ", "", false);
+            case 'N':
+                target.append("_NativeRefCountedObject");
                 break;
-            case assocTypePath:
-                printChildren(name, "", "", ".");
+            case 'C':
+                target.append("AnyObject");
                 break;
-            case moduleDescriptor:
-                printChildren(name, "module descriptor ", "", "");
+            case 'D':
+                target.append("_NativeClass");
                 break;
-            case anonymousDescriptor:
-                printChildren(name, "anonymous descriptor ", "", "");
+            case 'T':
+            case 'E':
+            case 'e':
+                target.append("_Trivial");
                 break;
-            case extensionDescriptor:
-                printChildren(name, "extension descriptor ", "", "");
+            case 'M':
+            case 'm':
+                target.append("_TrivialAtMost");
                 break;
-            case associatedTypeGenericParamRef:
-                printChildren(name, "generic parameter reference for associated type ", "", "");
+            default:
                 break;
         }
+        if (name.children.size() > 2) {
+            printOptional(name.children.get(2), "(", "", false);
+            printOptional(name.children.get(3), ", ", "", false);
+            target.append(")");
+        }
+        return null;
+    }
+
+    private SwiftSymbol printSilBoxTypeWithLayout(SwiftSymbol name) {
+        SwiftSymbol layout = name.children.get(0);
+        if (layout == null) {
+            return null;
+        }
+        printOptional(name.children.get(1), "", " ", false);
+        printName(layout, false);
+        SwiftSymbol genericArgs = name.children.get(2);
+        if (genericArgs != null) {
+            printSequence(genericArgs.children, " <", ">", ", ");
+        }
         return null;
     }
 
@@ -1052,7 +949,7 @@ public class SymbolPrinter {
                 SwiftSymbol dt = type.children.get(1);
                 if (dt != null) {
                     if (dt.needSpaceBeforeType()) {
-                        target += " ";
+                        target.append(" ");
                     }
                     if (dt.children.get(0) != null) {
                         t = dt.children.get(0);
@@ -1088,7 +985,7 @@ public class SymbolPrinter {
                 int currentPos = target.length();
                 postfixContext = printName(context, true);
                 if (target.length() != currentPos) {
-                    target += ".";
+                    target.append(".");
                 }
             }
         }
@@ -1096,12 +993,12 @@ public class SymbolPrinter {
         boolean extraNameConsumed = extraName == null;
         if (hasName || overwriteName != null) {
             if (!extraNameConsumed && multiWordName) {
-                target += (extraName.isEmpty() ? "" : extraName) + " of ";
+                target.append((extraName.isEmpty() ? "" : extraName) + " of ");
                 extraNameConsumed = true;
             }
             int currentPos = target.length();
             if (overwriteName != null) {
-                target += overwriteName;
+                target.append(overwriteName);
             } else {
                 SwiftSymbol one = name.children.get(1);
                 if (one != null) {
@@ -1115,14 +1012,14 @@ public class SymbolPrinter {
                 }
             }
             if (target.length() != currentPos && !extraNameConsumed) {
-                target += ".";
+                target.append(".");
             }
         }
 
         if (!extraNameConsumed) {
-            target += extraName.isEmpty() ? "" : extraName;
+            target.append(extraName.isEmpty() ? "" : extraName);
             if (extraIndex > 0) {
-                target += extraIndex;
+                target.append(extraIndex);
             }
         }
 
@@ -1162,12 +1059,12 @@ public class SymbolPrinter {
             }
             if (typePr == TypePrinting.withColon) {
                 if ((options & DISPLAYENTITYTYPES) == DISPLAYENTITYTYPES) {
-                    target += " : ";
+                    target.append(" : ");
                     printEntityType(name, type, genericFunctionTypeList);
                 }
             } else {
                 if (multiWordName || type.needSpaceBeforeType()) {
-                    target += " ";
+                    target.append(" ");
                 }
                 printEntityType(name, type, genericFunctionTypeList);
             }
@@ -1175,9 +1072,9 @@ public class SymbolPrinter {
 
         if (!asPrefixContext && postfixContext != null) {
             if (name.kind == SwiftSymbol.Kind.defaultArgumentInitializer || name.kind == SwiftSymbol.Kind.initializer) {
-                target += " of ";
+                target.append(" of ");
             } else {
-                target += " in ";
+                target.append(" in ");
             }
             printName(postfixContext, false);
             return null;
@@ -1213,51 +1110,47 @@ public class SymbolPrinter {
             }
             case constantPropFunction:
             case constantPropGlobal: {
-                target += "[";
+                target.append("[");
                 printOptional(name.children.get(index), "", "", false);
-                target += " : ";
+                target.append(" : ");
                 String t = name.children.get(index + 1).text();
                 if (t.isEmpty()) return index + 1;
-                String demangedName = "";
-                try {
-                    demangedName = MMSwiftDemangle.parsedMangledSwiftSymbol(t).description();
-                } catch (Exception extension) {
-                    demangedName = "";
-                }
+                DemangleResult demangled = MMSwiftDemangle.tryParseMangledSwiftSymbol(t);
+                String demangedName = demangled.isSuccess() ? demangled.symbol().description() : "";
                 if (demangedName.isEmpty()) {
-                    target += t;
+                    target.append(t);
                 } else {
-                    target += demangedName;
+                    target.append(demangedName);
                 }
-                target += "]";
+                target.append("]");
                 return index + 2;
             }
             case constantPropInteger:
             case constantPropFloat: {
-                target += "[";
+                target.append("[");
                 printOptional(name.children.get(index), "", "", false);
-                target += " : ";
+                target.append(" : ");
                 printOptional(name.children.get(index + 1), "", "", false);
-                target += "]";
+                target.append("]");
                 return index + 2;
             }
             case constantPropString: {
-                target += "[";
+                target.append("[");
                 printOptional(name.children.get(index), "", "", false);
-                target += " : ";
+                target.append(" : ");
                 printOptional(name.children.get(index + 1), "", "", false);
-                target += "'";
+                target.append("'");
                 printOptional(name.children.get(index + 2), "", "", false);
-                target += "'";
-                target += "]";
+                target.append("'");
+                target.append("]");
                 return index + 3;
             }
             case closureProp: {
-                target += "[";
+                target.append("[");
                 printOptional(name.children.get(index), "", "", false);
-                target += " : ";
+                target.append(" : ");
                 printOptional(name.children.get(index + 1), "", "", false);
-                target += ", Argument Types : [";
+                target.append(", Argument Types : [");
                 int idx = index + 2;
 
                 while (idx < name.children.size()) {
@@ -1266,11 +1159,11 @@ public class SymbolPrinter {
                         printName(c, false);
                         idx++;
                         if (idx < name.children.size() && !name.children.get(idx).text().isEmpty()) {
-                            target += ", ";
+                            target.append(", ");
                         }
                     }
                 }
-                target += "]";
+                target.append("]");
                 return idx;
             }
             default:
@@ -1282,33 +1175,33 @@ public class SymbolPrinter {
     public void printSpecializationPrefix(SwiftSymbol name, String description, String paramPrefix) {
         if ((options & DISPLAYGENERICSPECIALIZATIONS) != DISPLAYGENERICSPECIALIZATIONS) {
             if (!specializationPrefixPrinted) {
-                target += "specialized ";
+                target.append("specialized ");
                 specializationPrefixPrinted = true;
             }
             return;
         }
-        target += description + " <";
+        target.append(description + " <");
         String separator = "";
         for (SwiftSymbol c : name.children) {
             switch (c.kind) {
                 case specializationPassID:
                     break;
                 case specializationIsFragile: {
-                    target += separator;
+                    target.append(separator);
                     separator = ", ";
                     printName(c, false);
                 }
                 break;
                 default:
                     if (!c.children.isEmpty()) {
-                        target += separator;
-                        target += paramPrefix;
+                        target.append(separator);
+                        target.append(paramPrefix);
                         separator = ", ";
                         printName(c, false);
                     }
             }
         }
-        target += "> of ";
+        target.append("> of ");
     }
 
     public void printFunctionParameters(SwiftSymbol labelList, SwiftSymbol parameterType, boolean showTypes) {
@@ -1320,16 +1213,16 @@ public class SymbolPrinter {
 
         if (parameters.kind != SwiftSymbol.Kind.tuple) {
             if (showTypes) {
-                target += "(";
+                target.append("(");
                 printName(parameters, false);
-                target += ")";
+                target.append(")");
             } else {
-                target += "(_:)";
+                target.append("(_:)");
             }
             return;
         }
 
-        target += "(";
+        target.append("(");
         for (int i = 0; i < parameters.children.size(); i++) {
             SwiftSymbol tuple = parameters.children.get(i);
             SwiftSymbol label = null;
@@ -1339,26 +1232,26 @@ public class SymbolPrinter {
 
             if (label != null) {
                 String text = label.kind == SwiftSymbol.Kind.identifier ? (!label.text().isEmpty() ? label.text() : "") : "_";
-                target += text + ":";
+                target.append(text + ":");
                 if (showTypes) {
-                    target += " ";
+                    target.append(" ");
                 }
             } else if (!showTypes) {
                 SwiftSymbol label_ = Utility.First(label.children, swiftSymbol -> swiftSymbol.kind == SwiftSymbol.Kind.tupleElementName);
                 if (label_ != null) {
-                    target += Utility.validateString(label.text()) + ":";
+                    target.append(Utility.validateString(label.text()) + ":");
                 } else {
-                    target += "_:";
+                    target.append("_:");
                 }
             }
             if (showTypes) {
                 printName(tuple, false);
                 if (i != parameters.children.size() - 1) {
-                    target += ", ";
+                    target.append(", ");
                 }
             }
         }
-        target += ")";
+        target.append(")");
     }
 
     public void printFunctionType(SwiftSymbol labelList, SwiftSymbol name) {
@@ -1381,7 +1274,7 @@ public class SymbolPrinter {
             return;
         }
         if (startIndex == 1) {
-            target += " throws";
+            target.append(" throws");
         }
         printOptional(name.children.get(startIndex + 1), "", "", false);
     }
@@ -1458,7 +1351,7 @@ public class SymbolPrinter {
                 if (type != null) {
                     boolean needParens = !type.kind.isSimpleType();
                     printOptional(type, needParens ? "(" : "", needParens ? ")" : "", false);
-                    target += sugarType == SugarType.optional ? "?" : "!";
+                    target.append(sugarType == SugarType.optional ? "?" : "!");
                 }
             }
             break;
@@ -1468,7 +1361,7 @@ public class SymbolPrinter {
                 if (sugarType == SugarType.dictionary) {
                     printOptional(name.children.get(1).children.get(1), " : ", "", false);
                 }
-                target += "]";
+                target.append("]");
             }
             break;
             default:
@@ -1485,9 +1378,9 @@ public class SymbolPrinter {
         for (SwiftSymbol c : name.children) {
             if (c.kind == SwiftSymbol.Kind.implParameter) {
                 if (curState == inputs) {
-                    target += ", ";
+                    target.append(", ");
                 } else if (curState == attrs) {
-                    target += "(";
+                    target.append("(");
                 } else if (curState == results) {
                     break;
                 }
@@ -1495,65 +1388,65 @@ public class SymbolPrinter {
                 printName(c, false);
             } else if (c.kind == SwiftSymbol.Kind.implResult || c.kind == SwiftSymbol.Kind.implErrorResult) {
                 if (curState == inputs) {
-                    target += ") -> (";
+                    target.append(") -> (");
                 } else if (curState == attrs) {
-                    target += "() -> (";
+                    target.append("() -> (");
                 } else if (curState == results) {
-                    target += ", ";
+                    target.append(", ");
                 }
                 curState = results;
                 printName(c, false);
             } else {
                 printName(c, false);
-                target += " ";
+                target.append(" ");
             }
         }
 
         if (curState == inputs) {
-            target += ") -> ()";
+            target.append(") -> ()");
         } else if (curState == attrs) {
-            target += "() -> ()";
+            target.append("() -> ()");
         } else if (curState == results) {
-            target += ")";
+            target.append(")");
         }
     }
 
     public void quotedString(String value) {
         if (value == null) value = "";
-        target += "\"";
+        target.append("\"");
         for (char c : value.toCharArray()) {
             switch (c) {
                 case '\\':
-                    target += "\\\\";
+                    target.append("\\\\");
                     break;
                 case '\t':
-                    target += "\\t";
+                    target.append("\\t");
                     break;
                 case '\n':
-                    target += "\\n";
+                    target.append("\\n");
                     break;
                 case '\r':
-                    target += "\\r";
+                    target.append("\\r");
                     break;
                 case '\"':
-                    target += "\\\"";
+                    target.append("\\\"");
                     break;
                 case '\0':
-                    target += "\\0";
+                    target.append("\\0");
                     break;
                 default: {
                     if (c < 32 || c == 127) {
-                        target += "\\x";
+                        target.append("\\x");
                         int charInt = c;
                         char char_ = (char) (((charInt >> 4) > 9) ? ((char) c + 'A') : ((char) c + '0'));
-                        target += char_;
+                        target.append(char_);
                     } else {
-                        target += String.valueOf(c);
+                        target.append(String.valueOf(c));
                     }
                 }
             }
         }
-        target += "\"";
+        target.append("\"");
     }
 
     public String archetypeName(int index, int depth) {
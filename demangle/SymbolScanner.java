@@ -4,59 +4,215 @@
 
 package demangle;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
-import java.util.concurrent.Callable;
 
 /*
  * 字符串匹配器  有$符号表示会改变游标位置.
  */
 public class SymbolScanner {
     private char[] mangled;
+    // 字节模式: mangled为null, 扫描bytes[offset, offset + length).
+    private byte[] bytes;
+    private int offset;
+    private int length;
     private int index;
+    // 原始输入, span 内容延迟从这里生成 String.
+    private String source;
+    private int sourceOffset;
+    // 最近一次失败的原因和位置, 由throwException记录.
+    private MangledExceptionType failureType;
+    private int failureOffset = -1;
+
+    public SymbolScanner() {
+        this.length = 0;
+    }
 
     public SymbolScanner(String mangled) {
-        this.mangled = mangled.toCharArray();
+        reset(mangled);
+    }
+
+    /*
+     * 直接扫描ASCII字节, 不解码. 字节属于调用者, 所以span内容会立即生成String.
+     */
+    public SymbolScanner(byte[] bytes, int offset, int length) {
+        reset(bytes, offset, length);
+    }
+
+    /*
+     * 扫描新的输入, 保留已分配的char数组.
+     * 只有String是不可变的, 其他CharSequence的span内容会立即生成String.
+     */
+    public void reset(CharSequence mangled) {
+        reset(mangled, 0, mangled.length());
+    }
+
+    /*
+     * 只扫描mangled[start, end), 用于从一整行里直接取出token, 不生成子串.
+     */
+    public void reset(CharSequence mangled, int start, int end) {
+        if (start < 0 || start > end || end > mangled.length()) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + mangled.length());
+        }
+        int count = end - start;
+        if (this.mangled == null || this.mangled.length < count) {
+            this.mangled = new char[Math.max(count, 64)];
+        }
+        if (mangled instanceof String) {
+            ((String) mangled).getChars(start, end, this.mangled, 0);
+            this.source = (String) mangled;
+            this.sourceOffset = start;
+        } else {
+            for (int i = 0; i < count; i++) {
+                this.mangled[i] = mangled.charAt(start + i);
+            }
+            this.source = null;
+        }
+        this.bytes = null;
+        this.offset = 0;
+        this.length = count;
+        reset();
+    }
+
+    /*
+     * 扫描chars[offset, offset + length), 复制到复用的数组里.
+     */
+    public void reset(char[] chars, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > chars.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + chars.length);
+        }
+        if (this.mangled == null || this.mangled.length < length) {
+            this.mangled = new char[Math.max(length, 64)];
+        }
+        System.arraycopy(chars, offset, this.mangled, 0, length);
+        this.source = null;
+        this.bytes = null;
+        this.offset = 0;
+        this.length = length;
+        reset();
+    }
+
+    public void reset(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.source = null;
+        reset();
+    }
+
+    /*
+     * 释放对输入的引用, char数组保留给下一次使用.
+     */
+    public void clear() {
+        this.bytes = null;
+        this.source = null;
+        this.offset = 0;
+        this.length = 0;
         reset();
     }
 
+    /*
+     * 字节是否全部为ASCII, 否则需要按UTF-8解码后再扫描.
+     */
+    public static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) return false;
+        }
+        return true;
+    }
+
+    /*
+     * 只读[0, length), 复用的char数组和调用者的byte数组在length之后可能还有别的内容, 不能读到.
+     */
+    private char at(int i) {
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException("index " + i + ", length " + length);
+        }
+        return bytes == null ? mangled[i] : (char) bytes[offset + i];
+    }
+
     /*
      * reset index
      */
     public void reset() {
         this.index = 0;
+        this.failureType = null;
+        this.failureOffset = -1;
     }
 
     /*
      * 匹配mangled字符串是否是以string开头,如果是那么返回true,否则返回false,$
      */
     public boolean conditional(String string) {
-        if (string.length() == 0) return false;
-        int i = index;
-        for (char cInString :
-                string.toCharArray()) {
-            if (i == mangled.length || mangled[i] != cInString) {
+        int count = string.length();
+        if (count == 0) return false;
+        if (count > length - index) return false;
+        for (int j = 0; j < count; j++) {
+            if (at(index + j) != string.charAt(j)) {
                 return false;
             }
-            i++;
         }
-        index = i;
+        index += count;
         return true;
     }
 
     public String readChars(int count) throws Exception {
-        String result = "";
-        int i = index;
-        for (int j = 0; j < count; j++) {
-            if (i == mangled.length) {
-                throwException(MangledExceptionType.endedPrematurely);
+        int start = readSpan(count);
+        return text(start, start + count);
+    }
+
+    /*
+     * 读取count个字符,只返回起始位置,不生成String,$
+     * span为[start, start + count), 需要文本时再调用text()或spanContents().
+     */
+    public int readSpan(int count) throws Exception {
+        if (count < 0 || count > length - index) {
+            throwException(MangledExceptionType.endedPrematurely);
+        }
+        int start = index;
+        index += count;
+        return start;
+    }
+
+    /*
+     * 当前游标位置, 与readSpan/skipXXX配合得到span.
+     */
+    public int position() {
+        return index;
+    }
+
+    public char charAt(int i) {
+        return at(i);
+    }
+
+    public void appendTo(StringBuilder builder, int start, int end) {
+        if (bytes != null) {
+            for (int i = start; i < end; i++) {
+                builder.append((char) bytes[offset + i]);
             }
-            result = result + mangled[i];
-            i++;
+        } else {
+            builder.append(mangled, start, end - start);
         }
-        index = i;
-        return result;
+    }
+
+    public String text(int start, int end) {
+        if (bytes != null) {
+            return new String(bytes, offset + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        return new String(mangled, start, end - start);
+    }
+
+    /*
+     * 以span为内容的Contents, 直到第一次getName()才生成String.
+     */
+    public Contents spanContents(int start, int end) {
+        if (source == null) {
+            return new Contents(text(start, end));
+        }
+        return new Contents(source, sourceOffset + start, sourceOffset + end);
     }
 
     public int readInt() throws Exception {
@@ -76,8 +232,8 @@ public class SymbolScanner {
     public int conditionalInt() {
         int result = 0;
         int i = index;
-        while (i != (mangled.length - 1) && Character.isDigit(mangled[i])) {
-            int digit = mangled[i] - '0';
+        while (i < length && Character.isDigit(at(i))) {
+            int digit = at(i) - '0';
             result = result * 10 + digit;
             i++;
         }
@@ -101,8 +257,8 @@ public class SymbolScanner {
      * 获取剩余String,$
      */
     public String remainder() {
-        String remainder = mangled.toString().substring(index);
-        index = mangled.length;
+        String remainder = text(index, length);
+        index = length;
         return remainder;
     }
 
@@ -110,44 +266,37 @@ public class SymbolScanner {
      * 查看下一个字符.
      */
     public char requirePeek() throws Exception {
-        if (index == mangled.length) {
+        if (index == length) {
             throwException(MangledExceptionType.endedPrematurely);
         }
-        return mangled[index];
+        return at(index);
     }
 
     public char peek(int skipCount) throws Exception {
         int i = index;
         int c = skipCount;
-        while (c > 0 && i != mangled.length) {
+        while (c > 0 && i != length) {
             i++;
             c -= 1;
         }
 
-        if (i == mangled.length) {
+        if (i == length) {
             return 0;
         }
-        return mangled[i];
+        return at(i);
     }
 
     /*
      * 匹配mangled字符串是否是以string开头,如果匹配失败,抛出异常.
      */
     public void match(String string) throws Exception {
-        if (string.length() + index > mangled.length) {
-            throwException(MangledExceptionType.matchFailed);
-        }
-        String toStr = new String(mangled);
-        String subStr = toStr.substring(index, index + string.length());
-        if (subStr.equals(string)) {
-            index += string.length();
-        } else {
+        if (!conditional(string)) {
             throwException(MangledExceptionType.matchFailed);
         }
     }
 
     public void match(char scalar) throws Exception {
-        if (index == mangled.length || mangled[index] != scalar) {
+        if (index == length || at(index) != scalar) {
             throwException(MangledExceptionType.matchFailed);
         }
         index++;
@@ -158,17 +307,17 @@ public class SymbolScanner {
     }
 
     public void match(MatchTester test) throws Exception {
-        if (index == mangled.length || !test.matchChar(mangled[index])) {
+        if (index == length || !test.matchChar(at(index))) {
             throwException(MangledExceptionType.matchFailed);
         }
         index++;
     }
 
     public char read(MatchTester test) throws Exception {
-        if (index == mangled.length || !test.matchChar(mangled[index])) {
+        if (index == length || !test.matchChar(at(index))) {
             throwException(MangledExceptionType.matchFailed);
         }
-        char c = mangled[index];
+        char c = at(index);
         index++;
         return c;
     }
@@ -176,73 +325,60 @@ public class SymbolScanner {
     public String readUntil(char scalar) throws Exception {
         int i = index;
         skipUntil(scalar);
-        String str = "";
-        while (i != index) {
-            str += mangled[i];
-            i++;
-        }
-        return str;
+        return text(i, index);
     }
 
     public String readUntil(String string) throws Exception {
         int i = index;
         skipUntil(string);
-        String str = "";
-        while (i != index) {
-            str += mangled[i];
-            i++;
-        }
-        return str;
+        return text(i, index);
     }
 
-    public String readUntil(Set set) throws Exception {
+    public String readUntil(Set<Character> set) throws Exception {
+        return readUntil(CharClass.of(set));
+    }
+
+    public String readUntil(CharClass charClass) throws Exception {
         int i = index;
-        skipUntil(set);
-        String str = "";
-        while (i != index) {
-            str += mangled[i];
-            i++;
-        }
-        return str;
+        skipUntil(charClass);
+        return text(i, index);
     }
 
     public void skipUntil(char scalar) throws Exception {
         int i = index;
-        while (i != mangled.length && mangled[i] != scalar) {
+        while (i != length && at(i) != scalar) {
             i++;
         }
-        if (i == mangled.length) {
+        if (i == length) {
             throwException(MangledExceptionType.searchFailed);
         }
         index = i;
     }
 
-    public void skipUntil(Set set) throws Exception {
+    public void skipUntil(Set<Character> set) throws Exception {
+        skipUntil(CharClass.of(set));
+    }
+
+    public void skipUntil(CharClass charClass) throws Exception {
         int i = index;
-        while (i != mangled.length && !set.contains(mangled[i])) {
+        while (i != length && !charClass.contains(at(i))) {
             i++;
         }
-        if (i == mangled.length) {
+        if (i == length) {
             throwException(MangledExceptionType.searchFailed);
         }
         index = i;
     }
 
     public String readWhile(MatchTester test) {
-        String str = "";
-        while (index != mangled.length) {
-            if (!test.matchChar(mangled[index])) {
-                break;
-            }
-            str += mangled[index];
-            index++;
-        }
-        return str;
+        int i = index;
+        skipWhile(test);
+        return text(i, index);
     }
 
     public void skipWhile(MatchTester test) {
-        while (index != mangled.length) {
-            if (!test.matchChar(mangled[index])) {
+        while (index != length) {
+            if (!test.matchChar(at(index))) {
                 return;
             }
             index++;
@@ -250,63 +386,122 @@ public class SymbolScanner {
     }
 
     public void skipUntil(String string) throws Exception {
-        char[] match = string.toCharArray();
-        char first = match[0];
-        if (first == 0) return;
-        if (match.length == 1) {
-            skipUntil(first);
+        int count = string.length();
+        if (count == 0) return;
+        if (count == 1) {
+            skipUntil(string.charAt(0));
             return;
         }
-
-        int i = index;
-        int j = index;
-        char[] remainder = Arrays.copyOfRange(match, 1, match.length - 1);
-        do {
-            while (mangled[i] != first) {
-                if (i == mangled.length) {
-                    throwException(MangledExceptionType.searchFailed);
-                }
-                i++;
-                j = i;
+        char first = string.charAt(0);
+        for (int i = index; i <= length - count; i++) {
+            if (at(i) != first) continue;
+            int j = 1;
+            while (j < count && at(i + j) == string.charAt(j)) {
+                j++;
             }
-            i++;
-            boolean isBreak = false;
-            for (char s : remainder) {
-                if (i == mangled.length) {
-                    throwException(MangledExceptionType.searchFailed);
-                }
-                if (mangled[i] != s) {
-                    isBreak = true;
-                    break;
-                }
-                i++;
-            }
-            if (!isBreak) {
-                break;
+            if (j == count) {
+                index = i;
+                return;
             }
-        } while (true);
-        index = j;
+        }
+        throwException(MangledExceptionType.searchFailed);
     }
 
     /*
      * 查看下一个字符,$
      */
     public char readChar() throws Exception {
-        if (index == mangled.length) {
-            throw new Exception("<readChar()>: out of bounce.");
+        if (index == length) {
+            throwException(MangledExceptionType.endedPrematurely);
         }
-        return mangled[index++];
+        return at(index++);
     }
 
     public Boolean isAtEnd() {
-        return index == mangled.length;
+        return index == length;
     }
 
     public enum MangledExceptionType {
-        utf8ParseError, unexpected, matchFailed, expectedInt, endedPrematurely, searchFailed, integerOverflow
+        utf8ParseError, unexpected, matchFailed, expectedInt, endedPrematurely, searchFailed, integerOverflow, invalidPrefix
+    }
+
+    /*
+     * 失败信号. 每种类型预先分配一个, 不填充调用栈, 可在线程间共享;
+     * 失败的位置记录在scanner上, 用failureOffset()读取.
+     */
+    public static final class MangledException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final MangledExceptionType type;
+
+        private MangledException(MangledExceptionType type) {
+            super(type.toString(), null, false, false);
+            this.type = type;
+        }
+
+        public MangledExceptionType type() {
+            return type;
+        }
+    }
+
+    private static final MangledException[] signals;
+
+    static {
+        MangledExceptionType[] types = MangledExceptionType.values();
+        signals = new MangledException[types.length];
+        for (MangledExceptionType type : types) {
+            signals[type.ordinal()] = new MangledException(type);
+        }
     }
 
     public void throwException(MangledExceptionType type) throws Exception {
-        throw new Exception(type.toString());
+        failureType = type;
+        failureOffset = index;
+        throw signals[type.ordinal()];
+    }
+
+    public MangledExceptionType failureType() {
+        return failureType;
+    }
+
+    public int failureOffset() {
+        return failureOffset;
+    }
+
+    /*
+     * 字符集合, 用bitset代替Set<Character>, 查找时不需要装箱.
+     */
+    public static final class CharClass {
+        private final long[] bits;
+
+        private CharClass(long[] bits) {
+            this.bits = bits;
+        }
+
+        public static CharClass of(String chars) {
+            int max = 0;
+            for (int i = 0; i < chars.length(); i++) {
+                max = Math.max(max, chars.charAt(i));
+            }
+            long[] bits = new long[(max >> 6) + 1];
+            for (int i = 0; i < chars.length(); i++) {
+                char c = chars.charAt(i);
+                bits[c >> 6] |= 1L << c;
+            }
+            return new CharClass(bits);
+        }
+
+        public static CharClass of(Set<Character> set) {
+            StringBuilder chars = new StringBuilder(set.size());
+            for (Character c : set) {
+                if (c != null) chars.append(c.charValue());
+            }
+            return of(chars.toString());
+        }
+
+        public boolean contains(char c) {
+            int word = c >> 6;
+            return word < bits.length && (bits[word] & (1L << c)) != 0;
+        }
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.util.Arrays;
+
+/*
+ * Demangler的名字栈. 不加锁, clear()后保留容量供下一次使用.
+ */
+final class SymbolStack {
+    private SwiftSymbol[] elements = new SwiftSymbol[32];
+    private int size;
+
+    public void push(SwiftSymbol symbol) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = symbol;
+    }
+
+    /*
+     * 栈为空时返回null.
+     */
+    public SwiftSymbol pop() {
+        if (size == 0) return null;
+        SwiftSymbol last = elements[--size];
+        elements[size] = null;
+        return last;
+    }
+
+    public SwiftSymbol peek() {
+        return size == 0 ? null : elements[size - 1];
+    }
+
+    /*
+     * 越界时返回null, 与SafeArrayList.get一致.
+     */
+    public SwiftSymbol get(int index) {
+        if (index < 0 || index >= size) return null;
+        return elements[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * 把日志行流接到demangle上的Flow.Processor.
+ *
+ * 上游的行攒成批交给executor处理, 最多maxBatches批同时处理; 处理完的批按到达顺序输出, 所以输出顺序与输入一致.
+ * 攒批是自适应的: 没有批在处理时马上发出, 忙时攒满batchSize再发, 空闲时延迟低, 忙时每批的开销被分摊.
+ * 向上游请求的行数不超过batchSize * maxBatches, 并且只在一批的结果被下游取完后才补充, 所以缓冲有界,
+ * 下游不取时上游也会停下来.
+ */
+public final class SymbolStreamProcessor<R> implements Flow.Processor<String, R> {
+
+    /*
+     * 一行在流里的序号和它产生的结果.
+     */
+    interface Mapper<R> {
+        List<R> map(String line, long lineNumber);
+    }
+
+    /*
+     * symbols()输出的每个符号: 所在行的序号, 在行内的位置, 原始符号和demangle结果(失败时为null).
+     */
+    public static final class SymbolMatch {
+        public final long lineNumber;
+        public final int start;
+        public final int end;
+        public final String mangled;
+        public final String demangled;
+
+        SymbolMatch(long lineNumber, int start, int end, String mangled, String demangled) {
+            this.lineNumber = lineNumber;
+            this.start = start;
+            this.end = end;
+            this.mangled = mangled;
+            this.demangled = demangled;
+        }
+
+        public boolean isSuccess() {
+            return demangled != null;
+        }
+
+        @Override
+        public String toString() {
+            return lineNumber + ":" + start + " " + mangled + " -> " + demangled;
+        }
+    }
+
+    private static final class Batch<R> {
+        final List<String> lines;
+        final long firstLine;
+        List<R> results;
+        Throwable error;
+        boolean done;
+        int resultIndex;
+
+        Batch(List<String> lines, long firstLine) {
+            this.lines = lines;
+            this.firstLine = firstLine;
+        }
+    }
+
+    private final Mapper<R> mapper;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxBatches;
+
+    // 以下字段由this保护
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super R> downstream;
+    private List<String> forming;
+    private long nextLine;
+    private final ArrayDeque<Batch<R>> batches = new ArrayDeque<>();
+    private int inFlight;
+    private long demand;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private boolean terminated;
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    SymbolStreamProcessor(Mapper<R> mapper, Executor executor, int batchSize, int maxBatches) {
+        if (batchSize <= 0 || maxBatches <= 0) {
+            throw new IllegalArgumentException("batchSize " + batchSize + ", maxBatches " + maxBatches);
+        }
+        this.mapper = mapper;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.forming = new ArrayList<>(batchSize);
+    }
+
+    /*
+     * 输出改写后的行, 与parseMangledSwiftSymbolToString相同. 在common pool上处理.
+     */
+    public static SymbolStreamProcessor<String> lines() {
+        return lines(ForkJoinPool.commonPool(), 256, Math.max(2, ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    public static SymbolStreamProcessor<String> lines(Executor executor, int batchSize, int maxBatches) {
+        return new SymbolStreamProcessor<>((line, lineNumber) -> Collections.singletonList(MMSwiftDemangle.parseMangledSwiftSymbolToString(line)),
+                executor, batchSize, maxBatches);
+    }
+
+    /*
+     * 输出每行里找到的每个符号(SymbolFinder), 按options打印. 没有符号的行不输出.
+     */
+    public static SymbolStreamProcessor<SymbolMatch> symbols(@SymbolPrinter.SymbolPrintOptions int options) {
+        return symbols(options, ForkJoinPool.commonPool(), 256, Math.max(2, ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    public static SymbolStreamProcessor<SymbolMatch> symbols(@SymbolPrinter.SymbolPrintOptions int options, Executor executor, int batchSize, int maxBatches) {
+        return new SymbolStreamProcessor<>((line, lineNumber) -> {
+            List<SymbolMatch> matches = new ArrayList<>(2);
+            SymbolFinder.find(line, (start, end) -> {
+                String mangled = line.substring(start, end);
+                matches.add(new SymbolMatch(lineNumber, start, end, mangled, MMSwiftDemangle.demangle(mangled, options)));
+            });
+            return matches;
+        }, executor, batchSize, maxBatches);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = downstream == null;
+            if (accepted) downstream = subscriber;
+        }
+        if (!accepted) {
+            // 只支持一个订阅者
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("SymbolStreamProcessor supports a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (SymbolStreamProcessor.this) {
+                    if (n <= 0) {
+                        upstreamError = new IllegalArgumentException("non-positive request " + n);
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                Flow.Subscription subscription;
+                synchronized (SymbolStreamProcessor.this) {
+                    terminated = true;
+                    batches.clear();
+                    subscription = upstream;
+                }
+                if (subscription != null) subscription.cancel();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream != null || terminated) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        subscription.request((long) batchSize * maxBatches);
+    }
+
+    @Override
+    public void onNext(String line) {
+        synchronized (this) {
+            if (terminated) return;
+            forming.add(line);
+            if (forming.size() >= batchSize || inFlight == 0) dispatch();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            upstreamError = throwable;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+            if (!forming.isEmpty()) dispatch();
+        }
+        drain();
+    }
+
+    /*
+     * 在锁内调用. 名额已满时什么都不做, 等正在处理的批完成后再发.
+     */
+    private void dispatch() {
+        if (forming.isEmpty() || inFlight >= maxBatches) return;
+        Batch<R> batch = new Batch<>(forming, nextLine);
+        nextLine += forming.size();
+        forming = new ArrayList<>(batchSize);
+        batches.addLast(batch);
+        inFlight++;
+        try {
+            executor.execute(() -> process(batch));
+        } catch (RejectedExecutionException e) {
+            batch.error = e;
+            batch.done = true;
+            inFlight--;
+        }
+    }
+
+    private void process(Batch<R> batch) {
+        List<R> results = new ArrayList<>(batch.lines.size());
+        Throwable error = null;
+        try {
+            for (int i = 0; i < batch.lines.size(); i++) {
+                results.addAll(mapper.map(batch.lines.get(i), batch.firstLine + i));
+            }
+        } catch (Throwable t) {
+            error = t;
+        }
+        synchronized (this) {
+            batch.results = results;
+            batch.error = error;
+            batch.done = true;
+            inFlight--;
+            if (!forming.isEmpty()) dispatch();
+        }
+        drain();
+    }
+
+    /*
+     * 按顺序把处理完的结果交给下游. 同时只有一个线程在drain, 其他线程只增加wip, 由正在drain的线程代为处理.
+     * 调用下游和上游的方法都在锁外.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+        int missed = 1;
+        do {
+            while (true) {
+                Flow.Subscriber<? super R> subscriber;
+                Flow.Subscription subscription;
+                R item = null;
+                Throwable error = null;
+                boolean complete = false;
+                int replenish = 0;
+                synchronized (this) {
+                    subscriber = downstream;
+                    subscription = upstream;
+                    if (terminated || subscriber == null) break;
+                    Batch<R> head = batches.peekFirst();
+                    if (upstreamError != null) {
+                        error = upstreamError;
+                        terminated = true;
+                    } else if (head != null && head.done) {
+                        if (head.error != null) {
+                            error = head.error;
+                            terminated = true;
+                        } else if (head.resultIndex < head.results.size()) {
+                            if (demand == 0) break;
+                            item = head.results.get(head.resultIndex++);
+                            demand--;
+                        } else {
+                            batches.pollFirst();
+                            replenish = head.lines.size();
+                        }
+                    } else if (head == null && upstreamDone && forming.isEmpty() && inFlight == 0) {
+                        complete = true;
+                        terminated = true;
+                    } else {
+                        break;
+                    }
+                }
+                if (item != null) {
+                    subscriber.onNext(item);
+                } else if (replenish > 0) {
+                    if (subscription != null && !upstreamDone) subscription.request(replenish);
+                } else if (error != null) {
+                    if (subscription != null) subscription.cancel();
+                    subscriber.onError(error);
+                } else if (complete) {
+                    subscriber.onComplete();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Created by Yin Congxiao.
+ */
+
+package demangle;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * mangled字符串 -> 解析好的SwiftSymbol树. 树在放入前冻结, 可以被多个线程同时打印,
+ * 换一组打印选项只需要再打印一次, 不用再解析. 按条目数限制大小, 淘汰用CLOCK, 与SymbolCache相同.
+ */
+public final class SymbolTreeCache {
+
+    public interface Loader {
+        /* 返回null表示不缓存 */
+        SwiftSymbol load(String mangled);
+    }
+
+    private static final class Node {
+        final String mangled;
+        final SwiftSymbol tree;
+        volatile boolean referenced;
+
+        Node(String mangled, SwiftSymbol tree) {
+            this.mangled = mangled;
+            this.tree = tree;
+        }
+    }
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<>();
+
+    // clock只在lock内访问
+    private final Object lock = new Object();
+    private final ArrayDeque<Node> clock = new ArrayDeque<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SymbolTreeCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    public SwiftSymbol getIfPresent(String mangled) {
+        Node node = map.get(mangled);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hit(node);
+        return node.tree;
+    }
+
+    /*
+     * 返回冻结的树, 没有时调用loader解析并插入.
+     */
+    public SwiftSymbol get(String mangled, Loader loader) {
+        Node node = map.get(mangled);
+        if (node != null) {
+            hit(node);
+            return node.tree;
+        }
+        misses.increment();
+        SwiftSymbol tree = loader.load(mangled);
+        if (tree == null) return null;
+        return insert(new Node(mangled, tree.freeze()));
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            map.clear();
+            clock.clear();
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private void hit(Node node) {
+        hits.increment();
+        if (!node.referenced) node.referenced = true;
+    }
+
+    private SwiftSymbol insert(Node node) {
+        synchronized (lock) {
+            Node existing = map.putIfAbsent(node.mangled, node);
+            if (existing != null) return existing.tree;
+            clock.addLast(node);
+            while (clock.size() > maxEntries) {
+                Node victim = clock.pollFirst();
+                if (victim.referenced) {
+                    victim.referenced = false;
+                    clock.addLast(victim);
+                    continue;
+                }
+                map.remove(victim.mangled, victim);
+                evictions.increment();
+            }
+        }
+        return node.tree;
+    }
+}